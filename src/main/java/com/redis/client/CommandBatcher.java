@@ -0,0 +1,181 @@
+package com.redis.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ShardedJedis;
+
+import com.redis.jedis.JedisPool;
+import com.redis.jedis.ShardCommand;
+
+/**
+ * 命令合并：同时发往同一台redis的单key命令先排队，等待windowMicros或凑够maxCommands个后，
+ * 在一个连接上作为一个pipeline发送，回复按顺序交给各个调用线程
+ * 每台redis同一时刻最多一个正在排队的批次，批次从map中移除即表示由移除者负责发送：
+ * 凑够个数时由加入最后一个命令的线程发送，否则由创建批次的线程等待windowMicros后发送，
+ * 发送在调用线程上进行，不占用共享的定时线程
+ * @author jiangchunzhi
+ *
+ */
+class CommandBatcher {
+
+	private final RedisCacheImpl rc;
+
+	private final long windowMicros;
+
+	private final int maxCommands;
+
+	//每台redis正在排队的批次
+	private final ConcurrentHashMap<JedisPool, Batch> batches = new ConcurrentHashMap<JedisPool, Batch>();
+
+	CommandBatcher(RedisCacheImpl rc, long windowMicros, int maxCommands) {
+		this.rc = rc;
+		this.windowMicros = windowMicros;
+		this.maxCommands = maxCommands;
+	}
+
+	/**
+	 * 是否可以合并执行
+	 */
+	boolean supports(MethodInfo info) {
+		return RedisCacheImpl.PIPELINED.contains(info.getName());
+	}
+
+	/**
+	 * 排队执行并等待回复
+	 * @param name 接口方法名，必须在RedisCacheImpl.PIPELINED中
+	 */
+	Object execute(JedisPool jedisPool, String name, byte[] rawKey) throws Exception {
+		Pending pending = new Pending(name, rawKey);
+		//当前线程创建的批次
+		Batch opened = null;
+		for (;;) {
+			Batch batch = this.batches.get(jedisPool);
+			if (batch == null) {
+				batch = new Batch(jedisPool);
+				Batch prev = this.batches.putIfAbsent(jedisPool, batch);
+				if (prev != null) {
+					batch = prev;
+				} else {
+					opened = batch;
+				}
+			}
+			int size = batch.add(pending);
+			if (size < 0) {
+				//批次已经开始发送，重新排队
+				continue;
+			}
+			if (size >= this.maxCommands && this.batches.remove(jedisPool, batch)) {
+				//凑够个数由当前线程直接发送
+				this.flush(batch);
+			}
+			break;
+		}
+		try {
+			if (opened != null && !pending.future.isDone()) {
+				try {
+					//窗口内凑够个数时由其他线程发送，当前线程提前返回
+					return pending.future.get(this.windowMicros, TimeUnit.MICROSECONDS);
+				} catch (TimeoutException e) {
+					//窗口结束
+				} finally {
+					//窗口结束或等待被中断时，批次仍在排队则由当前线程发送，其他线程不会一直等待
+					if (this.batches.remove(jedisPool, opened)) {
+						this.flush(opened);
+					}
+				}
+			}
+			return pending.future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * 在一个连接上发送整个批次，单个命令的错误只交给对应的调用线程
+	 */
+	private void flush(Batch batch) {
+		final List<Pending> commands = batch.close();
+		try {
+			batch.jedisPool.execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					Pipeline pipeline = jedis.getShard(commands.get(0).rawKey).pipelined();
+					List<Response<?>> responses = new ArrayList<Response<?>>(commands.size());
+					for (Pending pending : commands) {
+						responses.add(rc.enqueue(pipeline, pending.name, pending.rawKey));
+					}
+					pipeline.sync();
+					for (int i = 0; i < commands.size(); i++) {
+						Pending pending = commands.get(i);
+						try {
+							pending.future.complete(rc.decode(pending.name, responses.get(i).get()));
+						} catch (Exception e) {
+							pending.future.completeExceptionally(e);
+						}
+					}
+					return null;
+				}
+			}, null);
+		} catch (Throwable e) {
+			//借用连接或发送失败，整个批次都失败
+			for (Pending pending : commands) {
+				pending.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static class Pending {
+
+		final String name;
+
+		final byte[] rawKey;
+
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+		Pending(String name, byte[] rawKey) {
+			this.name = name;
+			this.rawKey = rawKey;
+		}
+	}
+
+	private static class Batch {
+
+		final JedisPool jedisPool;
+
+		private List<Pending> commands = new ArrayList<Pending>();
+
+		Batch(JedisPool jedisPool) {
+			this.jedisPool = jedisPool;
+		}
+
+		/**
+		 * @return 加入后的命令个数，批次已关闭时返回-1
+		 */
+		synchronized int add(Pending pending) {
+			if (this.commands == null) {
+				return -1;
+			}
+			this.commands.add(pending);
+			return this.commands.size();
+		}
+
+		synchronized List<Pending> close() {
+			List<Pending> ret = this.commands;
+			this.commands = null;
+			return ret;
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.redis.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * key位置提示：重Hash读在后续master上找到数据时记录该节点，之后的读取先访问该节点，一次即可命中
+ * 提示只在记录时的路由快照版本内有效，其他版本的提示在读取时删除或按LRU淘汰；写操作通过invalidate清除，
+ * 条数和读写并发的处理见StripedLruCache
+ * @author jiangchunzhi
+ *
+ */
+class KeyLocationHints {
+
+	private static final class Hint {
+
+		final int index;
+
+		final long ringVersion;
+
+		Hint(int index, long ringVersion) {
+			this.index = index;
+			this.ringVersion = ringVersion;
+		}
+	}
+
+	private final StripedLruCache<ByteBuffer, Hint> entries;
+
+	KeyLocationHints(int maxSize) {
+		this.entries = new StripedLruCache<ByteBuffer, Hint>(maxSize);
+	}
+
+	/**
+	 * 读之前获取key的版本号，传给put
+	 * @param rawKey
+	 * @return
+	 */
+	long stamp(byte[] rawKey) {
+		return this.entries.stamp(ByteBuffer.wrap(rawKey));
+	}
+
+	/**
+	 * 获取key在当前快照中的提示节点
+	 * @param rawKey
+	 * @param ringVersion 当前快照版本号
+	 * @return 节点下标，没有提示或快照已变化时返回-1
+	 */
+	int get(byte[] rawKey, long ringVersion) {
+		ByteBuffer k = ByteBuffer.wrap(rawKey);
+		Hint hint = this.entries.get(k);
+		if (hint == null) {
+			return -1;
+		}
+		if (hint.ringVersion != ringVersion) {
+			this.entries.remove(k, hint);
+			return -1;
+		}
+		return hint.index;
+	}
+
+	/**
+	 * 记录key所在的节点
+	 * @param rawKey
+	 * @param index 找到数据的节点下标
+	 * @param ringVersion 快照版本号
+	 * @param stamp 读之前获取的版本号，期间有写操作时不记录
+	 */
+	void put(byte[] rawKey, int index, long ringVersion, long stamp) {
+		this.entries.put(ByteBuffer.wrap(rawKey), new Hint(index, ringVersion), stamp);
+	}
+
+	/**
+	 * 提示的节点上已经没有数据
+	 * @param rawKey
+	 */
+	void remove(byte[] rawKey) {
+		this.entries.remove(ByteBuffer.wrap(rawKey));
+	}
+
+	/**
+	 * 写操作后调用，清除key的提示
+	 * @param rawKey
+	 */
+	void invalidate(byte[] rawKey) {
+		this.entries.invalidate(ByteBuffer.wrap(rawKey));
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.redis.client;
+
+import java.util.Collections;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 在两个master之间迁移单个key，读修复和重新分片共用
+ * 复制使用DUMP/PTTL/RESTORE，目标master上已存在该key时保留目标master上的数据；
+ * 删除使用lua脚本比较DUMP结果，只有源数据在复制之后没有被修改时才删除
+ * @author jiangchunzhi
+ *
+ */
+final class KeyMigrator {
+
+	//源数据未被修改时删除，返回删除的key个数
+	private static final byte[] COMPARE_AND_DELETE = SafeEncoder.encode(
+			"if redis.call('dump', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end");
+
+	private KeyMigrator() {
+	}
+
+	/**
+	 * 把key连同剩余过期时间复制到目标master，再删除源master上的数据
+	 * @param source 源master连接
+	 * @param target 目标master连接
+	 * @param rawKey
+	 * @return 是否删除了源数据
+	 */
+	static boolean move(Jedis source, Jedis target, byte[] rawKey) {
+		byte[] dumped = source.dump(rawKey);
+		Long pttl = source.pttl(rawKey);
+		//已经被删除或过期
+		if (dumped == null || pttl == null || pttl == -2) {
+			return false;
+		}
+		//RESTORE的过期时间为int，超过时不迁移，数据仍可通过重Hash读取
+		if (pttl > Integer.MAX_VALUE) {
+			return false;
+		}
+		//目标master上已经有数据时，以目标master为准，RESTORE会返回BUSYKEY错误
+		if (!target.exists(rawKey)) {
+			target.restore(rawKey, pttl == -1 ? 0 : pttl.intValue(), dumped);
+		}
+		Object deleted = source.eval(COMPARE_AND_DELETE,
+				Collections.singletonList(rawKey), Collections.singletonList(dumped));
+		return deleted instanceof Long && (Long) deleted > 0;
+	}
+
+}
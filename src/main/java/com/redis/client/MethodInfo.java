@@ -0,0 +1,114 @@
+package com.redis.client;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import redis.clients.jedis.ShardedJedis;
+
+import com.redis.annotation.RedisRead;
+import com.redis.annotation.RehashRedisRead;
+import com.redis.jedis.ShardCommand;
+
+/**
+ * RedisCache接口方法的路由信息，创建代理时解析一次，调用时不再读取注解、不再反射调用
+ * 同时作为在单个redis上执行的命令，连接由JedisPool显式传入
+ * @author jiangchunzhi
+ *
+ */
+public final class MethodInfo implements ShardCommand {
+
+	//调用类型统一为(ShardedJedis, Object[])Object，可以使用invokeExact
+	private static final MethodType GENERIC = MethodType.methodType(Object.class, ShardedJedis.class, Object[].class);
+
+	private final String name;
+
+	//key参数的下标，约定为第0位
+	private final int keyIndex;
+
+	//是否可以从slave读取(@RedisRead)
+	private final boolean replicaRead;
+
+	//重Hash期间是否需要轮询其他master(@RehashRedisRead)
+	private final boolean rehashRead;
+
+	//非重Hash读以及返回基本类型的调用(increment等)，视为可能修改key
+	private final boolean mayWrite;
+
+	//单参数的重Hash读，返回null时能说明key不存在
+	private final boolean absenceProof;
+
+	//实现类中以byte[]作为key的重载方法，已绑定实现对象
+	private final MethodHandle handle;
+
+	private MethodInfo(Method method, MethodHandle handle) {
+		this.name = method.getName();
+		this.keyIndex = 0;
+		this.replicaRead = method.getAnnotation(RedisRead.class) != null;
+		this.rehashRead = method.getAnnotation(RehashRedisRead.class) != null;
+		this.mayWrite = !this.rehashRead || method.getReturnType().isPrimitive();
+		this.absenceProof = !this.mayWrite && method.getParameterTypes().length == 1;
+		this.handle = handle;
+	}
+
+	/**
+	 * 解析接口方法，查找impl中参数为(ShardedJedis, byte[] key, 其余参数)的同名方法
+	 * @param method 接口方法，第0位参数为String类型的key
+	 * @param impl 实现对象
+	 * @return
+	 */
+	public static MethodInfo resolve(Method method, Object impl) throws NoSuchMethodException, IllegalAccessException {
+		Class<?>[] params = method.getParameterTypes();
+		Class<?>[] types = new Class<?>[params.length + 1];
+		types[0] = ShardedJedis.class;
+		types[1] = byte[].class;
+		System.arraycopy(params, 1, types, 2, params.length - 1);
+		Method raw = impl.getClass().getMethod(method.getName(), types);
+		MethodHandle handle = MethodHandles.publicLookup().unreflect(raw).bindTo(impl)
+				.asSpreader(Object[].class, params.length).asType(GENERIC);
+		return new MethodInfo(method, handle);
+	}
+
+	/**
+	 * 使用借用的连接和已经替换为byte[]的key调用实现方法
+	 */
+	@Override
+	public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+		try {
+			return (Object) this.handle.invokeExact(jedis, args);
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+
+	public boolean isReplicaRead() {
+		return replicaRead;
+	}
+
+	public boolean isRehashRead() {
+		return rehashRead;
+	}
+
+	public boolean isMayWrite() {
+		return mayWrite;
+	}
+
+	public boolean isAbsenceProof() {
+		return absenceProof;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.redis.client;
+
+/**
+ * 不存在key的本地缓存：重Hash读在所有master上都没有找到的key，在有效期内直接返回null，不再轮询Hash环
+ * 写操作通过invalidate清除；条数和读写并发的处理见StripedLruCache
+ * @author jiangchunzhi
+ *
+ */
+class NegativeLookupCache {
+
+	//key和过期时间(System.nanoTime)
+	private final StripedLruCache<String, Long> entries;
+
+	private final long ttlNanos;
+
+	NegativeLookupCache(int maxSize, long ttlMillis) {
+		this.entries = new StripedLruCache<String, Long>(maxSize);
+		this.ttlNanos = ttlMillis * 1000000L;
+	}
+
+	/**
+	 * 读之前获取key的版本号，传给markAbsent
+	 * @param key
+	 * @return
+	 */
+	long stamp(String key) {
+		return this.entries.stamp(key);
+	}
+
+	/**
+	 * key是否已确认不存在且未过期
+	 * @param key
+	 * @return
+	 */
+	boolean isAbsent(String key) {
+		Long expire = this.entries.get(key);
+		if (expire == null) {
+			return false;
+		}
+		if (System.nanoTime() - expire >= 0) {
+			this.entries.remove(key, expire);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 记录key在所有master上都不存在
+	 * @param key
+	 * @param stamp 读之前获取的版本号，期间有写操作时不记录
+	 */
+	void markAbsent(String key, long stamp) {
+		this.entries.put(key, System.nanoTime() + this.ttlNanos, stamp);
+	}
+
+	/**
+	 * 写操作后调用，清除key的记录
+	 * @param key
+	 */
+	void invalidate(String key) {
+		this.entries.invalidate(key);
+	}
+
+}
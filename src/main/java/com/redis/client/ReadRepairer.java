@@ -0,0 +1,119 @@
+package com.redis.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.SafeEncoder;
+
+import com.redis.jedis.JedisPool;
+import com.redis.jedis.ShardCommand;
+
+/**
+ * 读修复：重Hash读在非所属master上找到数据时，异步把数据连同剩余过期时间复制到所属master，
+ * 再删除原master上的旧数据，之后的读取一次即可命中
+ * 迁移方式见KeyMigrator
+ * @author jiangchunzhi
+ *
+ */
+class ReadRepairer {
+
+	private Logger log = Logger.getLogger(this.getClass());
+
+	private final ThreadPoolExecutor executor;
+
+	//正在修复或等待修复的key，同一个key只提交一次
+	private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+	//修复完成的key个数
+	private final AtomicLong repaired = new AtomicLong();
+
+	//队列已满被丢弃的修复请求个数
+	private final AtomicLong dropped = new AtomicLong();
+
+	ReadRepairer(int threads, int queueSize) {
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger seq = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "redis-read-repair-" + seq.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	long getRepaired() {
+		return this.repaired.get();
+	}
+
+	long getDropped() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * 提交修复请求，队列已满或该key正在修复时直接返回，不阻塞读请求
+	 * @param rawKey
+	 * @param source 找到数据的master
+	 * @param owner key所属的master
+	 */
+	void submit(final byte[] rawKey, final JedisPool source, final JedisPool owner) {
+		if (source == owner) {
+			return;
+		}
+		final String key = SafeEncoder.encode(rawKey);
+		if (this.pending.putIfAbsent(key, Boolean.TRUE) != null) {
+			return;
+		}
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (repair(rawKey, source, owner)) {
+							repaired.incrementAndGet();
+						}
+					} catch (Exception e) {
+						log.warn("read repair failed, key=" + key, e);
+					} finally {
+						pending.remove(key);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			this.pending.remove(key);
+			this.dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 复制数据到所属master并删除旧数据，两个连接都通过JedisPool.execute借用，计入各自的许可
+	 * 连接异常时两个连接都作为损坏的连接归还
+	 * @return 是否删除了旧数据
+	 */
+	private boolean repair(final byte[] rawKey, JedisPool source, final JedisPool owner) throws Exception {
+		return (Boolean) source.execute(new ShardCommand() {
+			@Override
+			public Object execute(final ShardedJedis sourceSj, Object[] args) throws Exception {
+				return owner.execute(new ShardCommand() {
+					@Override
+					public Object execute(ShardedJedis ownerSj, Object[] args) throws Exception {
+						return KeyMigrator.move(sourceSj.getShard(rawKey), ownerSj.getShard(rawKey), rawKey);
+					}
+				}, null);
+			}
+		}, null);
+	}
+
+}
@@ -9,7 +9,6 @@ import com.redis.annotation.RedisRead;
 import com.redis.annotation.RehashRedisRead;
 
 import redis.clients.jedis.ScanResult;
-import redis.clients.jedis.ShardedJedis;
 
 /**
  * Redis 指令封装接口
@@ -325,10 +324,53 @@ public interface RedisCache {
 	public long increment(String key);
 	
 	/**
-	 * 设置shard jedis连接
-	 * @param jedis
+	 * 在key所属的master上执行Lua脚本，key作为KEYS[1]，args依次作为ARGV，一次往返完成复合操作
+	 * @param key
+	 * @param script 
+	 * @param args
+	 * @return 脚本返回值，字符串回复转换为String，多条回复转换为List
+	 */
+	public Object eval(String key, RedisScript script, List<String> args);
+	
+	//批量操作系列，按所属master分组，每个master一次请求并行执行
+	/**
+	 * 批量读出对象，每个master一次MGET，从slave中读取，重hash时未找到的key按Hash环顺序逐轮查询后续master，每轮每个master一次MGET
+	 * @param keys
+	 * @return 与keys顺序一致，不存在的key对应null
+	 * @throws Exception 
+	 */
+	@RedisRead
+	@RehashRedisRead
+	public List<Object> getMany(List<String> keys) throws Exception;
+	
+	/**
+	 * 批量读出字符串，每个master一次MGET，从slave中读取，重hash时未找到的key按Hash环顺序逐轮查询后续master，每轮每个master一次MGET
+	 * @param keys
+	 * @return 与keys顺序一致，不存在的key对应null
+	 */
+	@RedisRead
+	@RehashRedisRead
+	public List<String> getStringFromRedis(List<String> keys);
+	
+	/**
+	 * 批量写入无时限、可序列化的对象，每个master一次MSET
+	 * @param values 值不能为null，含null时抛出IllegalArgumentException，不写入任何key
+	 * @throws Exception 
+	 */
+	public void putMany(Map<String, ? extends Serializable> values) throws Exception;
+	
+	/**
+	 * 批量写入无时限的字符串，每个master一次MSET
+	 * @param values 值不能为null，含null时抛出IllegalArgumentException，不写入任何key
+	 */
+	public void putStringToRedis(Map<String, String> values);
+	
+	/**
+	 * 批量写入有时限的字符串，每个master一次pipeline
+	 * @param values 值不能为null，含null时抛出IllegalArgumentException，不写入任何key
+	 * @param seconds 设定key的活动时间（s）
 	 */
-	public void setShardedJedis(ShardedJedis jedis);
+	public void putStringToRedis(Map<String, String> values, int seconds);
 	
 }
 
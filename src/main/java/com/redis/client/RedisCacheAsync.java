@@ -0,0 +1,327 @@
+package com.redis.client;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Redis 指令封装异步接口，与RedisCache的操作一一对应，返回CompletableFuture
+ * 路由、读写分离和重Hash读都与RedisCache中同名方法一致，原方法抛出的异常使future异常完成
+ * 异步线程池已满时不在调用线程中执行，返回的future以RejectedExecutionException异常完成
+ * @author jiangchunzhi
+ *
+ */
+public interface RedisCacheAsync {
+	
+	/**
+	 * 写入一个无时限、可序列化的对象，key采用二进制形式
+	 * @param key
+	 * @param value
+	 */
+	public CompletableFuture<Void> put(String key,Serializable value);
+	
+	/**
+	 * 写入一个无时限、可序列化的对象,key使用字符串形式.
+	 * @param key
+	 * @param value
+	 */
+	public CompletableFuture<Void> putByStrKey(String key,String value);
+	
+	/**
+	 * 读出一个对象，从slave中读取,重hash时使用轮询读法
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Object> get(String key);
+	
+	/**
+	 * 使用字符串类型的key
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<String> getByStrKey(String key);
+	
+	/**
+	 * 写入一个无时限、可序列化的对象，Redis
+	 * @param key
+	 * @param value
+	 */
+	public CompletableFuture<Void> putToRedis(String key,Serializable  value);
+	
+	/**
+	 * 写入一个有时限、可序列化的对象，Redis
+	 * @param key
+	 * @param value
+	 * @param seconds 设定一个key的活动时间（s）
+	 */
+	public CompletableFuture<Void> putToRedis(String key,Serializable  value,int seconds);
+	
+	/**
+	 * 读出一个对象,Redis
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Object> getFromRedis(String key);
+	
+	/**
+	 * 写入一个有时限的字符串，Redis
+	 * @param key
+	 * @param value
+	 * @param seconds 设定一个key的活动时间（s）
+	 */
+	public CompletableFuture<Void> putStringToRedis(String key,String value,int seconds);
+	
+	/**
+	 * 写入一个无时限的字符串，Redis
+	 * @param key
+	 * @param value
+	 */
+	public CompletableFuture<Void> putStringToRedis(String key,String value);
+	
+	/**
+	 * 读出一个字符串，Redis
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<String> getStringFromRedis(String key);
+	
+	/**
+	 * 写入一个无时限的字符串，Redis的List集合 ，向key这个list添加元素，在尾部/头部添加
+	 * @param key
+	 * @param entry
+	 * @param isR true=尾部，false=头部
+	 * @return 推送操作后的列表内的元素的数目
+	 */
+	public CompletableFuture<Long> putStringToRedisList(String key, String entry, boolean isR);
+	
+	/**
+	 * 获取redis列表中指定下标的元素,对应lindex命令
+	 * @param key
+	 * @param index
+	 * @return
+	 */
+	public CompletableFuture<String> getFromRedisWithIndex(String key, long index);
+	
+	/**
+	 * 写入一个有时限的字符串，Redis的List集合 ，向key这个list添加元素，在尾部/头部添加
+	 * @param key
+	 * @param entry
+	 * @param isR true=尾部，false=头部
+	 * @param seconds 设定一个key的活动时间（s）
+	 * @return 推送操作后的列表内的元素的数目
+	 */
+	public CompletableFuture<Long> putStringToRedisList(String key, String entry, boolean isR,int seconds);
+	
+	/**
+	 * 写入一个无时限Redis的List集合，元素值为可序列化的对象，向key这个list添加元素，在尾部/头部添加
+	 * @param key
+	 * @param entry
+	 * @param isR true=尾部，false=头部
+	 * @param seconds 设定一个key的活动时间（s）
+	 * @return 推送操作后的列表内的元素的数目
+	 */
+	public CompletableFuture<Long> putToRedisList(String key, Serializable entry, boolean isR);
+	
+	/**
+	 * 写入一个有时限Redis的List集合，元素值为可序列化的对象， 向key这个list添加元素，在尾部/头部添加
+	 * @param key
+	 * @param entry
+	 * @param isR true=尾部，false=头部
+	 * @param seconds 设定一个key的活动时间（s）
+	 * @return 推送操作后的列表内的元素的数目
+	 */
+	public CompletableFuture<Long> putToRedisList(String key, Serializable entry, boolean isR,int seconds);
+	
+	/**
+	 * 读出一个字符串，Redis的List集合，返回并删除名称为key的list中的首/尾元素
+	 * @param key
+	 * @param isR true=尾部，false=头部
+	 * @return
+	 */
+	public CompletableFuture<String> getStringFromRedisList(String key,boolean isR);
+	
+	/**
+	 * 读出一个可序列化的对象，Redis的List集合，返回并删除名称为key的list中的首/尾元素
+	 * @param key
+	 * @param isR true=尾部，false=头部
+	 * @return
+	 */
+	public CompletableFuture<Object> getFromRedisList(String key,boolean isR);
+	
+	/**
+	 * 读出一个字符串List，Redis的List集合，从第几个元素到第几个元素
+	 * key start stop返回列表key中指定区间内的元素，区间以偏移量start和stop指定。
+	 * 下标(index)参数start和stop都以0表示列表的第一个元素，以1表示列表的第二个元素，以此类推。
+	 * 也可以使用负数下标，以-1表示列表的最后一个元素，-2表示列表的倒数第二个元素，以此类推。 
+	 * @param key
+	 * @param start 开始下标
+	 * @param end 结束下标
+	 * @return
+	 */
+	public CompletableFuture<List<String>> getStringFromRedisList(String key,long start,long end);
+	
+	/**
+	 * 删除一个key对应的数据
+	 * @param key
+	 */
+	public CompletableFuture<Void> remove(String key);
+	
+	/**
+	 * 检查key是否存在
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Boolean> exists(String key);
+	
+	/**
+	 * 原子操作,设置key value
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public CompletableFuture<Long> setNx(String key, String value);
+	
+	/**
+	 * 为给定key设置生命周期
+	 * @param key
+	 * @param seconds 生命周期 秒为单位
+	 */
+	public CompletableFuture<Void> expire(String key, int seconds);
+	
+	/**
+	 * 写入一个无时限的Redis的Map，元素值为字符串 ，向key这个map添加元素field
+	 * @param key
+	 * @param field
+	 * @param value
+	 * @return 如果字段已经存在，update操作，返回0；如果一个新的字段，insert操作，返回1。
+	 */
+	public CompletableFuture<Long> putStringToRedisMap(String key, String field, String value);
+	
+	public CompletableFuture<Long> putStringToRedisMap(String key, String field, String value, int seconds);
+	
+	public CompletableFuture<String> getStringFromRedisMap(String key, String field);
+	
+	public CompletableFuture<Long> delStringFromRedisMap(String key, String field);
+	
+	/**
+	 * Return all the fields and associated values in a hash.
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Map<String,String>> getMapFromRedisMap(String key);
+	
+	//集合操作系列
+	/**
+	 * 向redis结合中添加数据
+	 * @param key
+	 * @param value
+	 * @return 增加元素的个数
+	 */
+	public CompletableFuture<Long> addStringToRedisSet(String key, String value);
+	
+	/**
+	 * 获取redis结合的大小
+	 * @param key
+	 * @return 集合的大小
+	 */
+	public CompletableFuture<Long> getRedisSetSize(String key);
+	
+	/**
+	 * 从redis结合中移除指定元素
+	 * @param key
+	 * @param value
+	 * @return 移除元素的个数
+	 */
+	public CompletableFuture<Long> removeFromRedisSet(String key, String value);
+	
+	/**
+	 * 在redis集合中随机获取一个元素
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<String> getRandomStringFromRedisSet(String key);
+	
+	/**
+	 * 获取redis集合的所有元素
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Set<String>> getAllElementsFromRedisSet(String key);
+	
+	/**
+	 * 判断元素是否存在redis的集合中，如果存在，返回true，否则，返回false
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Boolean> isElementExistInRedisSet(String key, String value);
+	
+	/**
+	 * 采用游标的方式对集合进行遍历(由于目前sscan不支持二级制操作,所以没有使用价值)
+	 * @param key
+	 * @param cursor
+	 * @return
+	 */
+	public CompletableFuture<ScanResult<String>> scanRedisSet(String key, String cursor);
+	
+	/**
+	 * 将key所对应的值增加1
+	 * @param key
+	 * @return
+	 */
+	public CompletableFuture<Long> increment(String key);
+
+	public CompletableFuture<Object> eval(String key, RedisScript script, List<String> args);
+	
+	
+	/**
+	 * 批量读出对象，与RedisCache.getMany一致，在单独的批量线程池中执行
+	 * @param keys
+	 * @return 与keys顺序一致，不存在的key对应null
+	 */
+	public CompletableFuture<List<Object>> getMany(List<String> keys);
+	
+	/**
+	 * 批量读出字符串，与RedisCache.getStringFromRedis(List)一致
+	 * @param keys
+	 * @return 与keys顺序一致，不存在的key对应null
+	 */
+	public CompletableFuture<List<String>> getStringFromRedis(List<String> keys);
+	
+	/**
+	 * 批量写入无时限、可序列化的对象，与RedisCache.putMany一致
+	 * @param values 值不能为null，含null时future以IllegalArgumentException异常完成，不写入任何key
+	 */
+	public CompletableFuture<Void> putMany(Map<String, ? extends Serializable> values);
+	
+	/**
+	 * 批量写入无时限的字符串，与RedisCache.putStringToRedis(Map)一致
+	 * @param values 值不能为null，含null时future以IllegalArgumentException异常完成，不写入任何key
+	 */
+	public CompletableFuture<Void> putStringToRedis(Map<String, String> values);
+	
+	/**
+	 * 批量写入有时限的字符串，与RedisCache.putStringToRedis(Map, int)一致
+	 * @param values 值不能为null，含null时future以IllegalArgumentException异常完成，不写入任何key
+	 * @param seconds 设定key的活动时间（s）
+	 */
+	public CompletableFuture<Void> putStringToRedis(Map<String, String> values, int seconds);
+	
+}
+
+
+
+
+
+
+
+
+
+
+
+
+
@@ -0,0 +1,281 @@
+package com.redis.client;
+
+import com.redis.codec.JavaSerializationCodec;
+import com.redis.codec.ValueCodec;
+
+/**
+ * RedisCacheHandler调用配置
+ * @author jiangchunzhi
+ *
+ */
+public class RedisCacheConfig {
+
+	//是否在虚拟线程上执行异步调用和并行查询(需要Java 21，不支持时使用平台线程)，
+	//建议同时设置ShardedPoolConfig.maxConcurrency，由信号量限制每台redis的并发数
+	private boolean virtualThreads = false;
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	//RedisCacheAsync调用的最大并发数，排队也已满时返回的future以RejectedExecutionException异常完成
+	private int asyncThreads = 64;
+
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	public void setAsyncThreads(int asyncThreads) {
+		if (asyncThreads <= 0) {
+			throw new IllegalArgumentException("asyncThreads must be positive");
+		}
+		this.asyncThreads = asyncThreads;
+	}
+
+	//每个master同时执行和排队的RedisCacheAsync调用数，超过后该master的调用以RejectedExecutionException异常完成，
+	//一个master变慢时不会占满异步线程池而影响其他master的调用
+	private int asyncPerMaster = 16;
+
+	public int getAsyncPerMaster() {
+		return asyncPerMaster;
+	}
+
+	public void setAsyncPerMaster(int asyncPerMaster) {
+		if (asyncPerMaster <= 0) {
+			throw new IllegalArgumentException("asyncPerMaster must be positive");
+		}
+		this.asyncPerMaster = asyncPerMaster;
+	}
+
+	//重Hash读未命中时，是否并行查询所有其他master，而不是沿Hash环逐个查询
+	private boolean rehashFanOut = false;
+
+	public boolean isRehashFanOut() {
+		return rehashFanOut;
+	}
+
+	public void setRehashFanOut(boolean rehashFanOut) {
+		this.rehashFanOut = rehashFanOut;
+	}
+
+	//并行查询的最大并发数，线程池和队列已满时其余查询被放弃，该次查询不记录为不存在
+	private int fanOutThreads = 16;
+
+	public int getFanOutThreads() {
+		return fanOutThreads;
+	}
+
+	public void setFanOutThreads(int fanOutThreads) {
+		if (fanOutThreads <= 0) {
+			throw new IllegalArgumentException("fanOutThreads must be positive");
+		}
+		this.fanOutThreads = fanOutThreads;
+	}
+
+	//并行查询的总超时时间(毫秒)，超时后按未找到处理
+	private long fanOutTimeoutMillis = 1000;
+
+	public long getFanOutTimeoutMillis() {
+		return fanOutTimeoutMillis;
+	}
+
+	public void setFanOutTimeoutMillis(long fanOutTimeoutMillis) {
+		if (fanOutTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("fanOutTimeoutMillis must be positive");
+		}
+		this.fanOutTimeoutMillis = fanOutTimeoutMillis;
+	}
+
+	//不存在key缓存的最大条数，0表示不启用；重Hash读在所有master上都没有找到的key，有效期内直接返回null
+	private int negativeCacheSize = 0;
+
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		if (negativeCacheSize < 0) {
+			throw new IllegalArgumentException("negativeCacheSize must not be negative");
+		}
+		this.negativeCacheSize = negativeCacheSize;
+	}
+
+	//不存在key缓存的有效期(毫秒)，其他客户端写入的key最多在有效期内不可见
+	private long negativeCacheTtlMillis = 1000;
+
+	public long getNegativeCacheTtlMillis() {
+		return negativeCacheTtlMillis;
+	}
+
+	public void setNegativeCacheTtlMillis(long negativeCacheTtlMillis) {
+		if (negativeCacheTtlMillis <= 0) {
+			throw new IllegalArgumentException("negativeCacheTtlMillis must be positive");
+		}
+		this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+	}
+
+	//key位置提示的最大条数，0表示不启用；重Hash读在后续master上找到数据时记录，之后的读取先访问该master
+	private int hintCacheSize = 0;
+
+	public int getHintCacheSize() {
+		return hintCacheSize;
+	}
+
+	public void setHintCacheSize(int hintCacheSize) {
+		if (hintCacheSize < 0) {
+			throw new IllegalArgumentException("hintCacheSize must not be negative");
+		}
+		this.hintCacheSize = hintCacheSize;
+	}
+
+	//重Hash读在非所属master上找到数据时，是否异步把数据迁移到所属master
+	private boolean readRepair = false;
+
+	public boolean isReadRepair() {
+		return readRepair;
+	}
+
+	public void setReadRepair(boolean readRepair) {
+		this.readRepair = readRepair;
+	}
+
+	//读修复线程数
+	private int readRepairThreads = 2;
+
+	public int getReadRepairThreads() {
+		return readRepairThreads;
+	}
+
+	public void setReadRepairThreads(int readRepairThreads) {
+		if (readRepairThreads <= 0) {
+			throw new IllegalArgumentException("readRepairThreads must be positive");
+		}
+		this.readRepairThreads = readRepairThreads;
+	}
+
+	//读修复等待队列长度，队列满时丢弃新的修复请求
+	private int readRepairQueueSize = 1024;
+
+	public int getReadRepairQueueSize() {
+		return readRepairQueueSize;
+	}
+
+	public void setReadRepairQueueSize(int readRepairQueueSize) {
+		if (readRepairQueueSize <= 0) {
+			throw new IllegalArgumentException("readRepairQueueSize must be positive");
+		}
+		this.readRepairQueueSize = readRepairQueueSize;
+	}
+
+	//master增减后是否在后台把key迁移到新的所属master，迁移完成后自动关闭重Hash读
+	private boolean resharding = false;
+
+	public boolean isResharding() {
+		return resharding;
+	}
+
+	public void setResharding(boolean resharding) {
+		this.resharding = resharding;
+	}
+
+	//重新分片每次SCAN的key个数
+	private int reshardBatchSize = 100;
+
+	public int getReshardBatchSize() {
+		return reshardBatchSize;
+	}
+
+	public void setReshardBatchSize(int reshardBatchSize) {
+		if (reshardBatchSize <= 0) {
+			throw new IllegalArgumentException("reshardBatchSize must be positive");
+		}
+		this.reshardBatchSize = reshardBatchSize;
+	}
+
+	//重新分片每秒最多扫描的key个数
+	private int reshardKeysPerSecond = 5000;
+
+	public int getReshardKeysPerSecond() {
+		return reshardKeysPerSecond;
+	}
+
+	public void setReshardKeysPerSecond(int reshardKeysPerSecond) {
+		if (reshardKeysPerSecond <= 0) {
+			throw new IllegalArgumentException("reshardKeysPerSecond must be positive");
+		}
+		this.reshardKeysPerSecond = reshardKeysPerSecond;
+	}
+
+	//是否把同时发往同一台redis的单key读和increment合并为一个pipeline
+	private boolean autoBatch = false;
+
+	public boolean isAutoBatch() {
+		return autoBatch;
+	}
+
+	public void setAutoBatch(boolean autoBatch) {
+		this.autoBatch = autoBatch;
+	}
+
+	//合并等待的最长时间（微秒）
+	private long autoBatchWindowMicros = 100;
+
+	public long getAutoBatchWindowMicros() {
+		return autoBatchWindowMicros;
+	}
+
+	public void setAutoBatchWindowMicros(long autoBatchWindowMicros) {
+		if (autoBatchWindowMicros <= 0) {
+			throw new IllegalArgumentException("autoBatchWindowMicros must be positive");
+		}
+		this.autoBatchWindowMicros = autoBatchWindowMicros;
+	}
+
+	//一个pipeline最多合并的命令个数，达到后立即发送
+	private int autoBatchMaxCommands = 32;
+
+	public int getAutoBatchMaxCommands() {
+		return autoBatchMaxCommands;
+	}
+
+	public void setAutoBatchMaxCommands(int autoBatchMaxCommands) {
+		if (autoBatchMaxCommands <= 0) {
+			throw new IllegalArgumentException("autoBatchMaxCommands must be positive");
+		}
+		this.autoBatchMaxCommands = autoBatchMaxCommands;
+	}
+
+	//值编码，默认使用Java序列化与已有数据保持一致；
+	//BinaryCodec可以读取Java序列化的数据，但集合成员、setNx等按字节比较的值切换编码后不再相等
+	private ValueCodec valueCodec = JavaSerializationCodec.INSTANCE;
+
+	public ValueCodec getValueCodec() {
+		return valueCodec;
+	}
+
+	public void setValueCodec(ValueCodec valueCodec) {
+		if (valueCodec == null) {
+			throw new IllegalArgumentException("valueCodec must not be null");
+		}
+		this.valueCodec = valueCodec;
+	}
+
+	//编码后达到该字节数的值压缩保存，0表示不压缩，见CompressingCodec
+	private int compressionThreshold = 0;
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold) {
+		if (compressionThreshold < 0) {
+			throw new IllegalArgumentException("compressionThreshold must not be negative");
+		}
+		this.compressionThreshold = compressionThreshold;
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.redis.client;
 
 import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * redis cache factory
@@ -9,12 +10,37 @@ import java.lang.reflect.Proxy;
  */
 public class RedisCacheFactory {
 	
+	/**
+	 * 创建同步接口代理
+	 * @param handler
+	 * @return
+	 */
+	public static RedisCache getRedisCache(RedisCacheHandler handler) {
+		return (RedisCache)Proxy.newProxyInstance(RedisCacheFactory.class.getClassLoader(), 
+				new Class<?>[]{RedisCache.class}, handler);
+	}
+	
+	/**
+	 * 创建异步接口代理，可以与同步接口共用同一个handler
+	 * @param handler
+	 * @return
+	 */
+	public static RedisCacheAsync getRedisCacheAsync(RedisCacheHandler handler) {
+		return (RedisCacheAsync)Proxy.newProxyInstance(RedisCacheFactory.class.getClassLoader(), 
+				new Class<?>[]{RedisCacheAsync.class}, handler);
+	}
+	
 	public static void main(String[] args) throws Exception {
 		RedisCacheHandler handler = new RedisCacheHandler("10.5.18.62:26379,10.5.18.62:26380");
-		RedisCache rc = (RedisCache)Proxy.newProxyInstance(RedisCacheFactory.class.getClassLoader(), 
-				new Class[]{RedisCache.class}, handler);
+		RedisCache rc = getRedisCache(handler);
 		rc.addStringToRedisSet("test_mul", "test_key_1991");
 		System.out.println(rc.getAllElementsFromRedisSet("test_mul"));
+		
+		RedisCacheAsync async = getRedisCacheAsync(handler);
+		//两个请求并行执行
+		CompletableFuture<Long> size = async.getRedisSetSize("test_mul");
+		CompletableFuture<Boolean> exists = async.exists("test_mul");
+		System.out.println("size=" + size.get() + ", exists=" + exists.get());
 	}
 
 }
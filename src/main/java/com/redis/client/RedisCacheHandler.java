@@ -1,18 +1,47 @@
 package com.redis.client;
 
+import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
 
 import redis.clients.jedis.ShardedJedis;
-import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.util.SafeEncoder;
 
-import com.redis.annotation.RedisRead;
-import com.redis.annotation.RehashRedisRead;
+import com.redis.codec.CompressingCodec;
+import com.redis.codec.ValueCodec;
 import com.redis.jedis.JedisPool;
+import com.redis.jedis.RingSnapshot;
+import com.redis.jedis.ShardCommand;
+import com.redis.jedis.ShardedPoolConfig;
 import com.redis.jedis.ShardedPoolManager;
 import com.redis.jedis.ShardedPoolManagerFactory;
+import com.redis.util.VirtualThreads;
 
 /**
  * 动态代理内部处理handler
@@ -21,108 +50,829 @@ import com.redis.jedis.ShardedPoolManagerFactory;
  */
 public class RedisCacheHandler implements InvocationHandler {
 	
+	private Logger log = Logger.getLogger(this.getClass());
+	
 	private ShardedPoolManager spm;
 	
-	private RedisCache rc;
+	private RedisCacheImpl rc;
+	
+	//接口方法的路由信息，创建时解析，之后只读
+	private final Map<Method, MethodInfo> methods = new HashMap<Method, MethodInfo>();
+	
+	//RedisCacheAsync方法和RedisCache中同名方法的路由信息
+	private final Map<Method, MethodInfo> asyncMethods = new HashMap<Method, MethodInfo>();
+	
+	//批量操作，第0位参数是key列表或key-value映射
+	private enum BatchOp {
+		GET_MANY, GET_STRING_MANY, PUT_MANY, PUT_STRING_MANY
+	}
+	
+	private final Map<Method, BatchOp> batchMethods = new HashMap<Method, BatchOp>();
+	
+	//RedisCacheAsync中的批量操作
+	private final Map<Method, BatchOp> asyncBatchMethods = new HashMap<Method, BatchOp>();
 	
 	//重Hash状态,true表示正在进行重Hash,false表示没有进行重Hash
-	private boolean rehash = true;
+	private volatile boolean rehash = true;
+	
+	public boolean isRehash() {
+		return rehash;
+	}
+
+	/**
+	 * 打开或关闭重Hash读，启用重新分片时由Resharder自动设置
+	 * @param rehash
+	 */
+	public void setRehash(boolean rehash) {
+		this.rehash = rehash;
+	}
+	
+	private RedisCacheConfig config;
+	
+	//重Hash读并行查询线程池，未启用时为null
+	private ExecutorService fanOutExecutor;
+	
+	//RedisCacheAsync调用的执行线程池
+	private ExecutorService asyncExecutor;
+	
+	//RedisCacheAsync批量操作的执行线程池
+	private ExecutorService asyncBatchExecutor;
+	
+	//每个master的RedisCacheAsync调用许可，key为master name
+	private final ConcurrentHashMap<String, Semaphore> asyncPermits = new ConcurrentHashMap<String, Semaphore>();
+	
+	//不存在key缓存，未启用时为null
+	private NegativeLookupCache negativeCache;
+	
+	//读修复，未启用时为null
+	private ReadRepairer readRepairer;
+	
+	//key位置提示，未启用时为null
+	private KeyLocationHints hints;
+	
+	//重新分片，未启用时为null
+	private Resharder resharder;
+	
+	//命令合并，未启用时为null
+	private CommandBatcher batcher;
+	
+	public Resharder getResharder() {
+		return resharder;
+	}
+	
+	//值压缩，未启用时为null
+	private CompressingCodec compressingCodec;
+	
+	/**
+	 * 值压缩统计，未启用时返回null
+	 * @return
+	 */
+	public CompressingCodec getCompressingCodec() {
+		return compressingCodec;
+	}
 	
 	public RedisCacheHandler(String sentinelConfig) {
+		this(sentinelConfig, new ShardedPoolConfig());
+	}
+
+	public RedisCacheHandler(String sentinelConfig, ShardedPoolConfig poolConfig) {
+		this(sentinelConfig, poolConfig, new RedisCacheConfig());
+	}
+
+	public RedisCacheHandler(String sentinelConfig, ShardedPoolConfig poolConfig, RedisCacheConfig config) {
+		this.config = config;
 		//获取redis cache实现
-		this.rc = new RedisCacheImpl();
+		ValueCodec codec = config.getValueCodec();
+		if(config.getCompressionThreshold() > 0) {
+			this.compressingCodec = new CompressingCodec(codec, config.getCompressionThreshold());
+			codec = this.compressingCodec;
+		}
+		this.rc = new RedisCacheImpl(codec);
+		//解析所有以key作为第0位参数的接口方法
+		for(Method method : RedisCache.class.getMethods()) {
+			Class<?>[] types = method.getParameterTypes();
+			if(types.length > 0 && types[0] == String.class) {
+				try {
+					this.methods.put(method, MethodInfo.resolve(method, this.rc));
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalStateException("RedisCacheImpl does not implement " + method, e);
+				}
+			}
+		}
+		try {
+			this.batchMethods.put(RedisCache.class.getMethod("getMany", List.class), BatchOp.GET_MANY);
+			this.batchMethods.put(RedisCache.class.getMethod("getStringFromRedis", List.class), BatchOp.GET_STRING_MANY);
+			this.batchMethods.put(RedisCache.class.getMethod("putMany", Map.class), BatchOp.PUT_MANY);
+			this.batchMethods.put(RedisCache.class.getMethod("putStringToRedis", Map.class), BatchOp.PUT_STRING_MANY);
+			this.batchMethods.put(RedisCache.class.getMethod("putStringToRedis", Map.class, int.class), BatchOp.PUT_STRING_MANY);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("RedisCache does not declare batch method", e);
+		}
+		for(Method method : RedisCacheAsync.class.getMethods()) {
+			try {
+				Method sync = RedisCache.class.getMethod(method.getName(), method.getParameterTypes());
+				BatchOp op = this.batchMethods.get(sync);
+				if(op != null) {
+					this.asyncBatchMethods.put(method, op);
+				} else {
+					this.asyncMethods.put(method, this.methods.get(sync));
+				}
+			} catch (NoSuchMethodException e) {
+				throw new IllegalStateException("RedisCache does not declare " + method, e);
+			}
+		}
 		//获取sharded pool manager
-		ShardedPoolManagerFactory factory = new ShardedPoolManagerFactory(sentinelConfig);
+		ShardedPoolManagerFactory factory = new ShardedPoolManagerFactory(sentinelConfig, poolConfig);
 		this.spm = factory.getShardedPoolManager();
+		//虚拟线程模式下每个调用一个虚拟线程，并发数由连接池的信号量限制
+		if(config.isVirtualThreads() && !VirtualThreads.isSupported()) {
+			log.warn("virtual threads are not supported by this JVM, fall back to platform threads");
+		}
+		//异步调用不能阻塞调用线程，线程池已满时拒绝，由callAsync使future异常完成
+		this.asyncExecutor = this.newExecutor("redis-async", config.getAsyncThreads(), new ThreadPoolExecutor.AbortPolicy());
+		//异步批量操作等待各master的子任务完成，子任务在asyncExecutor中执行，两者分开避免互相等待占满线程
+		this.asyncBatchExecutor = this.newExecutor("redis-async-batch", config.getAsyncThreads(),
+				new ThreadPoolExecutor.AbortPolicy());
+		if(config.isRehashFanOut()) {
+			//被拒绝的查询不在调用线程中执行，否则不受fanOutTimeoutMillis限制
+			this.fanOutExecutor = this.newExecutor("redis-fanout", config.getFanOutThreads(),
+					new ThreadPoolExecutor.AbortPolicy());
+		}
+		if(config.getNegativeCacheSize() > 0) {
+			this.negativeCache = new NegativeLookupCache(config.getNegativeCacheSize(), config.getNegativeCacheTtlMillis());
+		}
+		if(config.getHintCacheSize() > 0) {
+			this.hints = new KeyLocationHints(config.getHintCacheSize());
+		}
+		if(config.isReadRepair()) {
+			this.readRepairer = new ReadRepairer(config.getReadRepairThreads(), config.getReadRepairQueueSize());
+		}
+		if(config.isAutoBatch()) {
+			this.batcher = new CommandBatcher(this.rc, config.getAutoBatchWindowMicros(),
+					config.getAutoBatchMaxCommands());
+		}
+		if(config.isResharding()) {
+			this.resharder = new Resharder(this.spm, this, config.getReshardBatchSize(), config.getReshardKeysPerSecond());
+			this.spm.addTopologyListener(this.resharder);
+		}
 	}
 
 	/**
-	 * 约定第0位参数是key
+	 * 约定第0位参数是key，同时支持RedisCache和RedisCacheAsync两个接口，批量操作的第0位参数是key的集合
 	 */
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		String key = (String)args[0];
-		RehashRedisRead rrr = method.getAnnotation(RehashRedisRead.class);
-		long bucket = this.spm.getBucket(key);
-		//如果正在进行重Hash,并且该方法需要支持重Hash,轮询查找master
-		//通过bucket获取server信息
-		String server = this.spm.getConsistentBuckets().get(bucket);
-		//通过server信息获取连接池
-		JedisPool jedisPool = this.getShardedJedis(method, server);
-		ShardedJedisPool sjp = jedisPool.getShardedJedisPool();
-		ShardedJedis sj = sjp.getResource();
-		//设置连接
-		this.rc.setShardedJedis(sj);
-		//执行实际操作
-		Object obj = method.invoke(this.rc, args);
-		//回收资源
-		this.returnResource(sjp, sj);
-		if(this.rehash && rrr != null) {
-			long lastBucket = bucket;
-			//循环整个Hash环,直到获取数据
-			while(obj == null) {
-				long nextBucket = this.spm.getNextBucket(bucket);
-				System.out.println("bucket[" + bucket + "]没有发现数据，获取下一个bucket[" + nextBucket + "]");
-				//当循环回到起点还没有找到数据时，返回null
-				if(nextBucket == lastBucket) {
+		MethodInfo info = this.methods.get(method);
+		if(info != null) {
+			return this.call(info, args);
+		}
+		info = this.asyncMethods.get(method);
+		if(info != null) {
+			return this.callAsync(info, args);
+		}
+		BatchOp op = this.batchMethods.get(method);
+		if(op != null) {
+			return this.batch(op, args);
+		}
+		op = this.asyncBatchMethods.get(method);
+		if(op != null) {
+			return this.batchAsync(op, args);
+		}
+		throw new UnsupportedOperationException(method.toString());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Object batch(BatchOp op, Object[] args) throws Throwable {
+		switch(op) {
+		case GET_MANY:
+			return this.getMany((List<String>) args[0], false);
+		case GET_STRING_MANY:
+			return this.getMany((List<String>) args[0], true);
+		case PUT_MANY:
+			this.putMany((Map<String, ?>) args[0], 0, false);
+			return null;
+		default:
+			this.putMany((Map<String, ?>) args[0], args.length > 1 ? (Integer) args[1] : 0, true);
+			return null;
+		}
+	}
+	
+	/**
+	 * 在线程池中执行批量操作，线程池已满时future以RejectedExecutionException异常完成，不阻塞调用线程
+	 */
+	private CompletableFuture<Object> batchAsync(final BatchOp op, final Object[] args) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		try {
+			this.asyncBatchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(batch(op, args));
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * 批量读：按key所属的master分组，每个master一次MGET(从slave读取)，并行执行后按输入顺序合并结果；
+	 * 重Hash期间未找到的key见getMissing
+	 * @param string true读取字符串，false读取对象
+	 */
+	private List<Object> getMany(List<String> keys, final boolean string) throws Throwable {
+		List<Object> ret = new ArrayList<Object>(Collections.nCopies(keys.size(), null));
+		if(keys.isEmpty()) {
+			return ret;
+		}
+		String name = string ? "getStringFromRedis" : "getMany";
+		RingSnapshot ring = this.spm.getRing();
+		byte[][] allKeys = this.encode(keys);
+		Map<Integer, List<Integer>> groups = this.groupByMaster(allKeys, ring);
+		List<ShardCommand> commands = new ArrayList<ShardCommand>(groups.size());
+		List<JedisPool> pools = new ArrayList<JedisPool>(groups.size());
+		for(List<Integer> positions : groups.values()) {
+			byte[][] rawKeys = select(allKeys, positions);
+			commands.add(this.mget(rawKeys, string));
+			int index = ring.locate(this.spm.getHash(rawKeys[0]));
+			pools.add(this.getShardedJedis(true, name, ring, index));
+		}
+		List<Object> results = this.executeAll(commands, pools);
+		int group = 0;
+		for(List<Integer> positions : groups.values()) {
+			List<?> values = (List<?>) results.get(group++);
+			for(int i = 0; i < positions.size(); i++) {
+				ret.set(positions.get(i), values.get(i));
+			}
+		}
+		//重Hash期间数据可能还在其他master上
+		if(this.rehash) {
+			this.getMissing(allKeys, ret, ring, string, name);
+		}
+		return ret;
+	}
+	
+	/**
+	 * 批量读的重Hash查找：未找到的key按各自的Hash环顺序逐轮查询后续master，
+	 * 每一轮按本轮要查询的master分组，每个master一次MGET并行执行，找到的key不再参与下一轮
+	 */
+	private void getMissing(byte[][] allKeys, List<Object> ret, RingSnapshot ring, boolean string, String name)
+			throws Throwable {
+		List<Integer> missing = new ArrayList<Integer>();
+		for(int i = 0; i < allKeys.length; i++) {
+			if(ret.get(i) == null) {
+				missing.add(i);
+			}
+		}
+		//每个key所属的节点、后续master的节点以及位置提示的版本号
+		int[] owners = new int[allKeys.length];
+		int[][] successors = new int[allKeys.length][];
+		long[] hintStamps = new long[allKeys.length];
+		for(int i : missing) {
+			owners[i] = ring.locate(this.spm.getHash(allKeys[i]));
+			successors[i] = ring.getSuccessors(owners[i]);
+			hintStamps[i] = this.hints != null ? this.hints.stamp(allKeys[i]) : 0;
+		}
+		for(int round = 0; !missing.isEmpty(); round++) {
+			//key为master，value为本轮在该master上查询的key的下标
+			Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+			Map<Integer, Integer> indexes = new HashMap<Integer, Integer>();
+			for(int i : missing) {
+				if(round >= successors[i].length) {
+					continue;
+				}
+				int index = successors[i][round];
+				int owner = ring.getOwner(index);
+				List<Integer> positions = groups.get(owner);
+				if(positions == null) {
+					positions = new ArrayList<Integer>();
+					groups.put(owner, positions);
+					indexes.put(owner, index);
+				}
+				positions.add(i);
+			}
+			if(groups.isEmpty()) {
+				return;
+			}
+			List<ShardCommand> commands = new ArrayList<ShardCommand>(groups.size());
+			List<JedisPool> pools = new ArrayList<JedisPool>(groups.size());
+			for(Entry<Integer, List<Integer>> entry : groups.entrySet()) {
+				commands.add(this.mget(select(allKeys, entry.getValue()), string));
+				pools.add(this.getShardedJedis(true, name, ring, indexes.get(entry.getKey())));
+			}
+			List<Object> results = this.executeAll(commands, pools);
+			List<Integer> next = new ArrayList<Integer>();
+			int group = 0;
+			for(Entry<Integer, List<Integer>> entry : groups.entrySet()) {
+				List<?> values = (List<?>) results.get(group++);
+				int index = indexes.get(entry.getKey());
+				List<Integer> positions = entry.getValue();
+				for(int j = 0; j < positions.size(); j++) {
+					int i = positions.get(j);
+					if(values.get(j) != null) {
+						ret.set(i, values.get(j));
+						this.found(allKeys[i], ring, owners[i], index, hintStamps[i]);
+					} else {
+						next.add(i);
+					}
+				}
+			}
+			missing = next;
+		}
+	}
+	
+	private ShardCommand mget(final byte[][] rawKeys, final boolean string) {
+		return new ShardCommand() {
+			@Override
+			public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+				return string ? rc.getStringMany(jedis, rawKeys) : rc.getMany(jedis, rawKeys);
+			}
+		};
+	}
+	
+	private static byte[][] select(byte[][] allKeys, List<Integer> positions) {
+		byte[][] rawKeys = new byte[positions.size()][];
+		for(int i = 0; i < rawKeys.length; i++) {
+			rawKeys[i] = allKeys[positions.get(i)];
+		}
+		return rawKeys;
+	}
+	
+	/**
+	 * 批量写：按key所属的master分组，每个master一次MSET，有时限时每个master一个SETEX的pipeline，并行执行
+	 * @param seconds 设定key的活动时间（s），0表示无时限
+	 * @param string true写入字符串，false写入可序列化的对象
+	 */
+	private void putMany(Map<String, ?> values, final int seconds, final boolean string) throws Throwable {
+		if(values.isEmpty()) {
+			return;
+		}
+		//MSET不能写入null，在发送任何命令之前拒绝
+		for(Entry<String, ?> entry : values.entrySet()) {
+			if(entry.getValue() == null) {
+				throw new IllegalArgumentException("value of key " + entry.getKey() + " must not be null");
+			}
+		}
+		List<String> keys = new ArrayList<String>(values.keySet());
+		RingSnapshot ring = this.spm.getRing();
+		byte[][] allKeys = this.encode(keys);
+		Map<Integer, List<Integer>> groups = this.groupByMaster(allKeys, ring);
+		List<ShardCommand> commands = new ArrayList<ShardCommand>(groups.size());
+		List<JedisPool> pools = new ArrayList<JedisPool>(groups.size());
+		for(List<Integer> positions : groups.values()) {
+			final byte[][] rawKeys = new byte[positions.size()][];
+			final String[] strings = new String[positions.size()];
+			final Serializable[] objects = new Serializable[positions.size()];
+			for(int i = 0; i < rawKeys.length; i++) {
+				String key = keys.get(positions.get(i));
+				rawKeys[i] = allKeys[positions.get(i)];
+				if(string) {
+					strings[i] = (String) values.get(key);
+				} else {
+					objects[i] = (Serializable) values.get(key);
+				}
+			}
+			commands.add(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					if(string) {
+						rc.putStringMany(jedis, rawKeys, strings, seconds);
+					} else {
+						rc.putMany(jedis, rawKeys, objects, seconds);
+					}
 					return null;
 				}
-				
-				server = this.spm.getConsistentBuckets().get(nextBucket);
-				jedisPool = this.getShardedJedis(method, server);
-				sjp = jedisPool.getShardedJedisPool();
-				sj = sjp.getResource();
-				this.rc.setShardedJedis(sj);
-				obj = method.invoke(this.rc, args);
-				this.returnResource(sjp, sj);
-				bucket = nextBucket;
+			});
+			pools.add(ring.getPool(ring.locate(this.spm.getHash(rawKeys[0]))));
+		}
+		try {
+			this.executeAll(commands, pools);
+		} finally {
+			for(int i = 0; i < allKeys.length; i++) {
+				this.invalidate(keys.get(i), allKeys[i]);
 			}
 		}
-		return obj;
 	}
 	
 	/**
-	 * 根据读写分离原则选择和设置连接
+	 * 每个key只编码一次，分组、路由和命令参数共用
 	 */
-	private JedisPool getShardedJedis(Method method, String masterServer) {
-		RedisRead rr = method.getAnnotation(RedisRead.class);
-		JedisPool jp = this.spm.getSocketPool().get(masterServer);
-		//如果设置了读写分离标识
-		if(rr != null) {
-			List<String> slaveList = this.spm.getMasterSlaveRef().get(masterServer);
-			if(slaveList != null && slaveList.size() > 0) {
-				int index = new Random().nextInt(slaveList.size());
-				String slave = slaveList.get(index);
-				jp = this.spm.getSocketPool().get(slave);
-				System.out.println("method name=" + method.getName() + 
-						", master=" + masterServer + ", 选中slave=" + slave);
+	private byte[][] encode(List<String> keys) {
+		byte[][] rawKeys = new byte[keys.size()][];
+		for(int i = 0; i < rawKeys.length; i++) {
+			rawKeys[i] = SafeEncoder.encode(keys.get(i));
+		}
+		return rawKeys;
+	}
+	
+	/**
+	 * 按key所属的master分组，返回每个master上的key在输入中的下标
+	 */
+	private Map<Integer, List<Integer>> groupByMaster(byte[][] rawKeys, RingSnapshot ring) {
+		Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+		for(int i = 0; i < rawKeys.length; i++) {
+			int owner = ring.getOwner(ring.locate(this.spm.getHash(rawKeys[i])));
+			List<Integer> positions = groups.get(owner);
+			if(positions == null) {
+				positions = new ArrayList<Integer>();
+				groups.put(owner, positions);
 			}
+			positions.add(i);
 		}
-		return jp;
+		return groups;
 	}
 	
 	/**
-	 * 将连接资源返回连接池
-	 * @param pool
-	 * @param sj
+	 * 在各自的redis上并行执行命令，最后一个在调用线程中执行，按输入顺序返回结果
 	 */
-	private void returnResource(ShardedJedisPool pool, ShardedJedis sj) {
+	private List<Object> executeAll(List<ShardCommand> commands, List<JedisPool> pools) throws Throwable {
+		int last = commands.size() - 1;
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(last);
+		for(int i = 0; i < last; i++) {
+			final ShardCommand command = commands.get(i);
+			final JedisPool jedisPool = pools.get(i);
+			FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return jedisPool.execute(command, null);
+				}
+			});
+			try {
+				this.asyncExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				//批量调用是同步调用，线程池已满时在调用线程中执行
+				task.run();
+			}
+			futures.add(task);
+		}
+		List<Object> results = new ArrayList<Object>(commands.size());
 		try {
-			if (null != pool) {
-				pool.returnResource(sj);
+			Object lastResult = pools.get(last).execute(commands.get(last), null);
+			for(Future<Object> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw e.getCause();
+				}
+			}
+			results.add(lastResult);
+		} finally {
+			for(Future<Object> future : futures) {
+				future.cancel(true);
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
+		return results;
 	}
+	
+	/**
+	 * 在线程池中执行同步调用，不阻塞调用线程：key所属master的许可已用完或线程池已满时，
+	 * future以RejectedExecutionException异常完成，只影响该master的调用
+	 */
+	private CompletableFuture<Object> callAsync(final MethodInfo info, final Object[] args) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		String master;
+		try {
+			RingSnapshot ring = this.spm.getRing();
+			master = ring.getMasterName(ring.getOwner(ring.locate(this.spm.getHash((String) args[info.getKeyIndex()]))));
+		} catch (RuntimeException e) {
+			//例如没有可用的master，与同步调用的异常一致
+			future.completeExceptionally(e);
+			return future;
+		}
+		final Semaphore permits = this.asyncPermits(master);
+		if(!permits.tryAcquire()) {
+			future.completeExceptionally(new RejectedExecutionException("too many async calls on master " + master));
+			return future;
+		}
+		try {
+			this.asyncExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(call(info, args));
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	private Semaphore asyncPermits(String master) {
+		Semaphore permits = this.asyncPermits.get(master);
+		if(permits == null) {
+			permits = new Semaphore(this.config.getAsyncPerMaster());
+			Semaphore prev = this.asyncPermits.putIfAbsent(master, permits);
+			if(prev != null) {
+				permits = prev;
+			}
+		}
+		return permits;
+	}
+	
+	private Object call(MethodInfo info, Object[] args) throws Throwable {
+		String key = (String)args[info.getKeyIndex()];
+		//key只编码一次，hash、路由、命令参数和重Hash轮询都使用同一个数组
+		byte[] rawKey = SafeEncoder.encode(key);
+		//代理每次调用都会创建新的参数数组，直接替换key即可
+		args[info.getKeyIndex()] = rawKey;
+		//可能修改key的调用，执行后清除本地记录
+		if(info.isMayWrite()) {
+			try {
+				return this.route(info, args, rawKey, null, 0);
+			} finally {
+				this.invalidate(key, rawKey);
+			}
+		}
+		if(this.negativeCache != null && info.isAbsenceProof()) {
+			if(this.rehash && this.negativeCache.isAbsent(key)) {
+				return null;
+			}
+			return this.route(info, args, rawKey, key, this.negativeCache.stamp(key));
+		}
+		return this.route(info, args, rawKey, null, 0);
+	}
+	
+	/**
+	 * 写操作之后清除不存在key缓存和key位置提示
+	 */
+	private void invalidate(String key, byte[] rawKey) {
+		if(this.negativeCache != null) {
+			this.negativeCache.invalidate(key);
+		}
+		if(this.hints != null) {
+			this.hints.invalidate(rawKey);
+		}
+	}
+	
+	/**
+	 * 路由并执行，重Hash读在所有master上都没有找到时，记录negativeKey不存在；
+	 * 从slave读取的方法需要记录时，轮询只查询master，第一次读取来自slave时再查询一次对应的master
+	 * @param negativeKey 需要记录到不存在key缓存的key，不需要记录时为null
+	 * @param stamp 读之前获取的版本号
+	 */
+	private Object route(MethodInfo info, Object[] args, byte[] rawKey,
+			String negativeKey, long stamp) throws Throwable {
+		//整个调用过程使用同一个路由快照，拓扑变化不会影响本次调用
+		RingSnapshot ring = this.spm.getRing();
+		int index = ring.locate(this.spm.getHash(rawKey));
+		//key所属的节点，有界负载转移时index会变化
+		int ownerIndex = index;
+		
+		//重Hash期间先访问上次找到数据的节点
+		long hintStamp = 0;
+		if(this.rehash && info.isRehashRead() && this.hints != null) {
+			hintStamp = this.hints.stamp(rawKey);
+			int hinted = this.hints.get(rawKey, ring.getVersion());
+			if(hinted >= 0) {
+				Object obj = this.execute(info, args, this.getShardedJedis(info, ring, hinted));
+				if(obj != null) {
+					this.repair(rawKey, ring, ownerIndex, hinted);
+					return obj;
+				}
+				this.hints.remove(rawKey);
+			}
+		}
+		//通过虚拟节点获取连接池
+		JedisPool jedisPool = this.getShardedJedis(info, ring, index);
+		
+		//有界负载：读请求的目标超过容量时转移到其他副本
+		double loadFactor = this.spm.getConfig().getBoundedLoadFactor();
+		if(loadFactor > 0 && info.isReplicaRead()) {
+			int capacity = ring.capacity(loadFactor);
+			if(jedisPool.getInFlight() >= capacity) {
+				JedisPool replica = ring.leastLoaded(index);
+				if(replica.getInFlight() < capacity) {
+					jedisPool = replica;
+				} else if(this.rehash && info.isRehashRead()) {
+					//重Hash期间数据本来就可能位于后续master上，转移到环上的下一个master，之后的轮询会回到原master
+					int spill = ring.spillIndex(index, capacity);
+					if(spill >= 0) {
+						index = spill;
+						jedisPool = ring.leastLoaded(spill);
+					}
+				}
+			}
+		}
+		
+		//执行实际操作
+		Object obj = this.execute(info, args, jedisPool);
+		//如果正在进行重Hash,并且该方法需要支持重Hash,轮询查找master
+		if(this.rehash && info.isRehashRead() && obj == null && this.fanOutExecutor != null) {
+			//并行查询其他所有master
+			return this.fanOut(info, args, ring, ownerIndex, index, jedisPool, negativeKey, stamp, hintStamp);
+		}
+		if(this.rehash && info.isRehashRead()) {
+			//需要记录不存在时只查询master，slave上未找到可能只是复制延迟
+			boolean confirm = negativeKey != null;
+			int firstIndex = index;
+			//按Hash环顺序依次查询其他master，每个master只查询一次,直到获取数据
+			for(int nextIndex : ring.getSuccessors(index)) {
+				if(obj != null) {
+					break;
+				}
+				System.out.println("bucket[" + ring.getPoint(index) + "]没有发现数据，获取下一个bucket[" + ring.getPoint(nextIndex) + "]");
+				obj = this.execute(info, args, this.probePool(info, ring, nextIndex, confirm));
+				index = nextIndex;
+			}
+			if(obj == null && confirm) {
+				obj = this.confirmOnMaster(info, args, ring, firstIndex, jedisPool);
+				if(obj == null) {
+					this.negativeCache.markAbsent(negativeKey, stamp);
+				} else {
+					index = firstIndex;
+				}
+			}
+			if(obj != null) {
+				this.found(rawKey, ring, ownerIndex, index, hintStamp);
+			}
+		}
+		return obj;
+	}
+	
+	/**
+	 * 重Hash轮询使用的连接池，confirm为true时使用master，查询结果可以作为不存在的依据
+	 */
+	private JedisPool probePool(MethodInfo info, RingSnapshot ring, int index, boolean confirm) {
+		return confirm ? ring.getPool(index) : this.getShardedJedis(info, ring, index);
+	}
+	
+	/**
+	 * 第一次读取来自slave时在对应的master上再查询一次，确认不存在后才能记录
+	 * @param firstPool 第一次读取使用的连接池
+	 */
+	private Object confirmOnMaster(MethodInfo info, Object[] args, RingSnapshot ring, int firstIndex,
+			JedisPool firstPool) throws Exception {
+		JedisPool master = ring.getPool(firstIndex);
+		return firstPool == master ? null : this.execute(info, args, master);
+	}
+	
+	/**
+	 * 并行查询index之后的所有其他master，并发数受线程池限制，总耗时不超过fanOutTimeoutMillis，
+	 * 按Hash环顺序返回第一个非null结果
+	 */
+	private Object fanOut(final MethodInfo info, final Object[] args, final RingSnapshot ring, int ownerIndex,
+			int index, JedisPool firstPool, String negativeKey, long stamp, long hintStamp) throws Throwable {
+		//需要记录不存在时只查询master，slave上未找到可能只是复制延迟
+		boolean confirm = negativeKey != null;
+		//超时从提交之前开始计算
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.config.getFanOutTimeoutMillis());
+		//按Hash环顺序查询其他master，每个master只查询一次
+		int[] successors = ring.getSuccessors(index);
+		//线程池已满被拒绝的查询为null，不在调用线程中执行
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(successors.length);
+		//所有master都确认没有数据时才记录不存在
+		boolean complete = true;
+		for(int i : successors) {
+			final JedisPool jedisPool = this.probePool(info, ring, i, confirm);
+			Future<Object> future = null;
+			try {
+				future = this.fanOutExecutor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						try {
+							return execute(info, args, jedisPool);
+						} catch (Exception e) {
+							throw e;
+						} catch (Throwable e) {
+							throw new ExecutionException(e);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				log.warn("method name=" + info.getName() + " fan out rejected, master=" + ring.getMaster(i));
+				complete = false;
+			}
+			futures.add(future);
+		}
+		
+		try {
+			for(int i = 0; i < futures.size(); i++) {
+				if(futures.get(i) == null) {
+					continue;
+				}
+				try {
+					Object obj = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					if(obj != null) {
+						this.found((byte[]) args[0], ring, ownerIndex, successors[i], hintStamp);
+						return obj;
+					}
+				} catch (ExecutionException e) {
+					//单个master查询失败按未找到处理
+					log.warn("method name=" + info.getName() + " fan out failed, master=" + ring.getMaster(successors[i]),
+							e.getCause());
+					complete = false;
+				}
+			}
+			if(complete && confirm) {
+				Object obj = this.confirmOnMaster(info, args, ring, index, firstPool);
+				if(obj != null) {
+					this.found((byte[]) args[0], ring, ownerIndex, index, hintStamp);
+					return obj;
+				}
+				this.negativeCache.markAbsent(negativeKey, stamp);
+			}
+		} catch (TimeoutException e) {
+			log.warn("method name=" + info.getName() + " fan out timeout");
+		} finally {
+			for(Future<Object> future : futures) {
+				if(future != null) {
+					future.cancel(true);
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 重Hash读找到数据后，数据不在key所属的master上时记录位置提示并提交读修复
+	 * @param ownerIndex key所属的节点
+	 * @param foundIndex 找到数据的节点
+	 * @param hintStamp 读之前获取的提示版本号
+	 */
+	private void found(byte[] rawKey, RingSnapshot ring, int ownerIndex, int foundIndex, long hintStamp) {
+		if(this.hints != null && ring.getOwner(ownerIndex) != ring.getOwner(foundIndex)) {
+			this.hints.put(rawKey, foundIndex, ring.getVersion(), hintStamp);
+		}
+		this.repair(rawKey, ring, ownerIndex, foundIndex);
+	}
+	
+	/**
+	 * 数据不在key所属的master上时提交读修复
+	 * @param ownerIndex key所属的节点
+	 * @param foundIndex 找到数据的节点
+	 */
+	private void repair(byte[] rawKey, RingSnapshot ring, int ownerIndex, int foundIndex) {
+		if(this.readRepairer != null && ring.getOwner(ownerIndex) != ring.getOwner(foundIndex)) {
+			this.readRepairer.submit(rawKey, ring.getPool(foundIndex), ring.getPool(ownerIndex));
+		}
+	}
+	
+	/**
+	 * 创建有界线程池，队列满时按rejectedHandler处理；启用虚拟线程且JVM支持时创建虚拟线程池
+	 */
+	private ExecutorService newExecutor(final String name, int threads, RejectedExecutionHandler rejectedHandler) {
+		if(this.config.isVirtualThreads()) {
+			ExecutorService executor = VirtualThreads.newExecutor();
+			if(executor != null) {
+				return executor;
+			}
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(threads * 64), new ThreadFactory() {
+					private final AtomicInteger seq = new AtomicInteger();
 
-}
-
-
-
-
-
-
-
-
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, rejectedHandler);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * 在指定的redis上执行操作，启用命令合并时可以合并的命令和其他线程的命令一起以pipeline发送
+	 */
+	private Object execute(MethodInfo info, Object[] args, JedisPool jedisPool) throws Exception {
+		if(this.batcher != null && this.batcher.supports(info)) {
+			return this.batcher.execute(jedisPool, info.getName(), (byte[]) args[info.getKeyIndex()]);
+		}
+		return jedisPool.execute(info, args);
+	}
+	
+	/**
+	 * 根据读写分离原则选择和设置连接
+	 */
+	private JedisPool getShardedJedis(MethodInfo info, RingSnapshot ring, int index) {
+		return this.getShardedJedis(info.isReplicaRead(), info.getName(), ring, index);
+	}
+	
+	private JedisPool getShardedJedis(boolean replicaRead, String name, RingSnapshot ring, int index) {
+		JedisPool jp = ring.getPool(index);
+		//如果设置了读写分离标识
+		if(replicaRead) {
+			JedisPool[] slavePools = ring.getSlavePools(index);
+			if(slavePools.length > 0) {
+				int slave = ThreadLocalRandom.current().nextInt(slavePools.length);
+				jp = slavePools[slave];
+				System.out.println("method name=" + name + 
+						", master=" + ring.getMaster(index) + ", 选中slave=" + ring.getSlaveNames(index)[slave]);
+			}
+		}
+		return jp;
+	}
 
+}
@@ -1,244 +1,316 @@
 package com.redis.client;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import com.redis.codec.JavaSerializationCodec;
+import com.redis.codec.ValueCodec;
 
 /**
- * Redis 指令封装实现
+ * Redis 指令封装实现，与RedisCache接口方法一一对应
+ * 每个操作的第0位参数是本次调用借用的连接，第1位参数是按UTF-8编码一次的key，路由和所有命令参数共用同一个数组
+ * 实现类除值编码外不保存任何状态，连接由调用方借用和归还，可以在任意线程中调用
  * 
  * @author jiangchunzhi
  * 
  */
-public class RedisCacheImpl implements RedisCache {
+public class RedisCacheImpl {
 
 //	private static final Logger log = Logger.getLogger(RedisCacheImpl.class);
+
+	//可以合并到pipeline中执行的单key命令，见enqueue和decode
+	public static final Set<String> PIPELINED = new HashSet<String>(Arrays.asList(
+			"get", "getByStrKey", "getFromRedis", "getStringFromRedis", "exists", "increment"));
+
+	//可序列化对象的编码方式
+	private final ValueCodec codec;
+
+	public RedisCacheImpl() {
+		this(JavaSerializationCodec.INSTANCE);
+	}
+
+	public RedisCacheImpl(ValueCodec codec) {
+		this.codec = codec;
+	}
 	
-	private ThreadLocal<ShardedJedis> threadLocal = new ThreadLocal<ShardedJedis>();
+	public void putToRedis(ShardedJedis jedis, byte[] key, Serializable value, int seconds) throws Exception {
+		this.setBytes(jedis, key, this.object2Bytes(value), seconds);
+	}
 
-	@Override
-	public void putToRedis(String key, Serializable value, int seconds) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		jedis.set(key.getBytes(), this.object2Bytes(value));
-		if (seconds > 0) {
-			jedis.expire(key.getBytes(), seconds);// 设置过期时间
-		}
+	public void putStringToRedis(ShardedJedis jedis, byte[] key, String value, int seconds) {
+		this.setBytes(jedis, key, SafeEncoder.encode(value), seconds);
 	}
 
-	@Override
-	public void putStringToRedis(String key, String value, int seconds) {
-		ShardedJedis jedis = this.threadLocal.get();
-		jedis.set(key, value);
+	/**
+	 * 有时限时使用SETEX，写入和过期时间一次往返、原子生效
+	 */
+	private void setBytes(ShardedJedis jedis, byte[] key, byte[] value, int seconds) {
 		if (seconds > 0) {
-			jedis.expire(key, seconds);// 设置过期时间
+			jedis.setex(key, seconds, value);
+		} else {
+			jedis.set(key, value);
 		}
 	}
 
-	@Override
-	public Object getFromRedis(String key) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		byte[] obj = jedis.get(key.getBytes());
+	public Object getFromRedis(ShardedJedis jedis, byte[] key) throws Exception {
+		byte[] obj = jedis.get(key);
 		return this.bytes2Object(obj);
 	}
 
-	@Override
-	public String getStringFromRedis(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.get(key);
+	public String getStringFromRedis(ShardedJedis jedis, byte[] key) {
+		return this.decode(jedis.get(key));
 	}
 
-	@Override
-	public long putStringToRedisList(String key, String entry, boolean isR,
+	public long putStringToRedisList(ShardedJedis jedis, byte[] key, String entry, boolean isR,
 			int seconds) {
-		ShardedJedis jedis = this.threadLocal.get();
-		long ret = 0;
-		if (isR) {
-			ret = jedis.rpush(key, entry);
-		} else {
-			ret = jedis.lpush(key, entry);
-		}
-		if (seconds > 0) {
-			jedis.expire(key.getBytes(), seconds);// 设置过期时间
-		}
-		return ret;
+		return this.pushBytes(jedis, key, SafeEncoder.encode(entry), isR, seconds);
 	}
 
-	@Override
-	public long putToRedisList(String key, Serializable entry, boolean isR,
+	public long putToRedisList(ShardedJedis jedis, byte[] key, Serializable entry, boolean isR,
 			int seconds) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		long ret = 0;
-		if (isR) {
-			ret = jedis.rpush(key.getBytes(), this.object2Bytes(entry));
-		} else {
-			ret = jedis.lpush(key.getBytes(), this.object2Bytes(entry));
-		}
-		if (seconds > 0) {
-			jedis.expire(key.getBytes(), seconds);// 设置过期时间
+		return this.pushBytes(jedis, key, this.object2Bytes(entry), isR, seconds);
+	}
+
+	/**
+	 * 有时限时在一个pipeline中以MULTI/EXEC发送push和EXPIRE，一次往返、原子生效
+	 */
+	private long pushBytes(ShardedJedis jedis, byte[] key, byte[] entry, boolean isR, int seconds) {
+		if (seconds <= 0) {
+			return isR ? jedis.rpush(key, entry) : jedis.lpush(key, entry);
 		}
-		return ret;
+		Pipeline pipeline = jedis.getShard(key).pipelined();
+		pipeline.multi();
+		Response<Long> ret = isR ? pipeline.rpush(key, entry) : pipeline.lpush(key, entry);
+		pipeline.expire(key, seconds);// 设置过期时间
+		pipeline.exec();
+		pipeline.sync();
+		return ret.get();
 	}
 
-	@Override
-	public long putStringToRedisMap(String key, String field, String value,
+	public long putStringToRedisMap(ShardedJedis jedis, byte[] key, String field, String value,
 			int seconds) {
-		ShardedJedis jedis = this.threadLocal.get();
-		long ret = 0;
-		ret = jedis.hset(key, field, value);
-		if (seconds > 0) {
-			jedis.expire(key.getBytes(), seconds);// 设置过期时间
+		if (seconds <= 0) {
+			return jedis.hset(key, SafeEncoder.encode(field), SafeEncoder.encode(value));
 		}
+		//HSET和EXPIRE在一个MULTI/EXEC中一次往返
+		Pipeline pipeline = jedis.getShard(key).pipelined();
+		pipeline.multi();
+		Response<Long> ret = pipeline.hset(key, SafeEncoder.encode(field), SafeEncoder.encode(value));
+		pipeline.expire(key, seconds);// 设置过期时间
+		pipeline.exec();
+		pipeline.sync();
+		return ret.get();
+	}
+
+	public long delStringFromRedisMap(ShardedJedis jedis, byte[] key, String field) {
+		long ret = jedis.hdel(key, SafeEncoder.encode(field));
 		return ret;
 	}
 
-	@Override
-	public long delStringFromRedisMap(String key, String field) {
-		ShardedJedis jedis = this.threadLocal.get();
-		long ret = jedis.hdel(key, field);
+	public String getStringFromRedisMap(ShardedJedis jedis, byte[] key, String field) {
+		String ret = this.decode(jedis.hget(key, SafeEncoder.encode(field)));
 		return ret;
 	}
 
-	@Override
-	public String getStringFromRedisMap(String key, String field) {
-		ShardedJedis jedis = this.threadLocal.get();
-		String ret = jedis.hget(key, field);
+	public Map<String, String> getMapFromRedisMap(ShardedJedis jedis, byte[] key) {
+		Map<byte[], byte[]> bRet = jedis.hgetAll(key);
+		Map<String, String> ret = new HashMap<String, String>(bRet.size() * 4 / 3 + 1);
+		for (Map.Entry<byte[], byte[]> entry : bRet.entrySet()) {
+			ret.put(this.decode(entry.getKey()), this.decode(entry.getValue()));
+		}
 		return ret;
 	}
 
-	@Override
-	public Map<String, String> getMapFromRedisMap(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
-		Map<String, String> ret = jedis.hgetAll(key);
+	public List<String> getStringFromRedisList(ShardedJedis jedis, byte[] key, long start, long end) {
+		List<byte[]> bRet = jedis.lrange(key, start, end);
+		List<String> ret = new ArrayList<String>(bRet.size());
+		for (byte[] bs : bRet) {
+			ret.add(this.decode(bs));
+		}
 		return ret;
 	}
 
-	@Override
-	public List<String> getStringFromRedisList(String key, long start, long end) {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.lrange(key, start, end);
-	}
-
-	@Override
-	public String getStringFromRedisList(String key, boolean isR) {
-		ShardedJedis jedis = this.threadLocal.get();
-		String ret = null;
+	public String getStringFromRedisList(ShardedJedis jedis, byte[] key, boolean isR) {
+		byte[] ret = null;
 		if (isR) {
 			ret = jedis.rpop(key);
 		} else {
 			ret = jedis.lpop(key);
 		}
-		return ret;
+		return this.decode(ret);
 	}
 
-	@Override
-	public Object getFromRedisList(String key, boolean isR) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
+	public Object getFromRedisList(ShardedJedis jedis, byte[] key, boolean isR) throws Exception {
 		byte[] bRet = null;
 		if (isR) {
-			bRet = jedis.rpop(key.getBytes());
+			bRet = jedis.rpop(key);
 		} else {
-			bRet = jedis.lpop(key.getBytes());
+			bRet = jedis.lpop(key);
 		}
 		Object ret = this.bytes2Object(bRet);
 		return ret;
 	}
 
-	@Override
-	public void remove(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
+	public void remove(ShardedJedis jedis, byte[] key) {
 		jedis.del(key);
 	}
 
-	@Override
-	public boolean exists(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
+	public boolean exists(ShardedJedis jedis, byte[] key) {
 		boolean bool = jedis.exists(key);
 		return bool;
 	}
 
-	@Override
-	public void expire(String key, int seconds) {
-		ShardedJedis jedis = this.threadLocal.get();
+	public void expire(ShardedJedis jedis, byte[] key, int seconds) {
 		jedis.expire(key, seconds);
 	}
 
-	@Override
-	public void put(String key, Serializable value) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		jedis.set(key.getBytes(), this.object2Bytes(value));
+	public void put(ShardedJedis jedis, byte[] key, Serializable value) throws Exception {
+		jedis.set(key, this.object2Bytes(value));
 	}
 
-	@Override
-	public Object get(String key) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		byte[] obj = jedis.get(key.getBytes());
+	public Object get(ShardedJedis jedis, byte[] key) throws Exception {
+		byte[] obj = jedis.get(key);
 
 		Object _obj = this.bytes2Object(obj);
 		return _obj;
 	}
 
+	public List<Object> getMany(ShardedJedis jedis, byte[][] keys) throws Exception {
+		List<byte[]> bRet = jedis.getShard(keys[0]).mget(keys);
+		List<Object> ret = new ArrayList<Object>(bRet.size());
+		for (byte[] bs : bRet) {
+			ret.add(this.bytes2Object(bs));
+		}
+		return ret;
+	}
+
+	public List<String> getStringMany(ShardedJedis jedis, byte[][] keys) {
+		List<byte[]> bRet = jedis.getShard(keys[0]).mget(keys);
+		List<String> ret = new ArrayList<String>(bRet.size());
+		for (byte[] bs : bRet) {
+			ret.add(this.decode(bs));
+		}
+		return ret;
+	}
+
+	public void putMany(ShardedJedis jedis, byte[][] keys, Serializable[] values, int seconds) throws Exception {
+		byte[][] bValues = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bValues[i] = this.object2Bytes(values[i]);
+		}
+		this.putBytesMany(jedis, keys, bValues, seconds);
+	}
+
+	public void putStringMany(ShardedJedis jedis, byte[][] keys, String[] values, int seconds) {
+		byte[][] bValues = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bValues[i] = SafeEncoder.encode(values[i]);
+		}
+		this.putBytesMany(jedis, keys, bValues, seconds);
+	}
+
+	/**
+	 * 没有过期时间时使用一次MSET，否则在一个pipeline中逐个SETEX
+	 */
+	private void putBytesMany(ShardedJedis jedis, byte[][] keys, byte[][] values, int seconds) {
+		Jedis shard = jedis.getShard(keys[0]);
+		if (seconds <= 0) {
+			byte[][] keysValues = new byte[keys.length * 2][];
+			for (int i = 0; i < keys.length; i++) {
+				keysValues[2 * i] = keys[i];
+				keysValues[2 * i + 1] = values[i];
+			}
+			shard.mset(keysValues);
+			return;
+		}
+		Pipeline pipeline = shard.pipelined();
+		for (int i = 0; i < keys.length; i++) {
+			pipeline.setex(keys[i], seconds, values[i]);
+		}
+		pipeline.sync();
+	}
+
+	/**
+	 * 把PIPELINED中的命令写入pipeline，回复在sync之后通过decode转换为接口方法的返回值
+	 * @param name 接口方法名
+	 */
+	public Response<?> enqueue(Pipeline pipeline, String name, byte[] key) {
+		if ("exists".equals(name)) {
+			return pipeline.exists(key);
+		}
+		if ("increment".equals(name)) {
+			return pipeline.incr(key);
+		}
+		return pipeline.get(key);
+	}
+
+	public Object decode(String name, Object reply) throws Exception {
+		if ("get".equals(name) || "getFromRedis".equals(name)) {
+			return this.bytes2Object((byte[]) reply);
+		}
+		if ("getByStrKey".equals(name) || "getStringFromRedis".equals(name)) {
+			return this.decode((byte[]) reply);
+		}
+		return reply;
+	}
+
 	private byte[] object2Bytes(Serializable obj) throws Exception {
 		if (obj == null) {
 			return null;
 		}
-		ByteArrayOutputStream bo = new ByteArrayOutputStream();
-		ObjectOutputStream oo = new ObjectOutputStream(bo);
-		oo.writeObject(obj);
-		bo.close();
-		oo.close();
-		return bo.toByteArray();
+		return this.codec.encode(obj);
 	}
 
 	private Object bytes2Object(byte[] objBytes) throws Exception {
 		if (objBytes == null || objBytes.length == 0) {
 			return null;
 		}
-		ByteArrayInputStream bi = new ByteArrayInputStream(objBytes);
-		ObjectInputStream oi = new ObjectInputStream(bi);
-		Object obj = oi.readObject();
-		bi.close();
-		oi.close();
-		return obj;
+		return this.codec.decode(objBytes);
+	}
+
+	/**
+	 * 按UTF-8解码，null返回null
+	 * @param bytes
+	 * @return
+	 */
+	private String decode(byte[] bytes) {
+		return bytes == null ? null : SafeEncoder.encode(bytes);
 	}
 
-	@Override
-	public long addStringToRedisSet(String key, String value) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.sadd(key.getBytes(), this.object2Bytes(value));
+	public long addStringToRedisSet(ShardedJedis jedis, byte[] key, String value) throws Exception {
+		return jedis.sadd(key, this.object2Bytes(value));
 	}
 
-	@Override
-	public long getRedisSetSize(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.scard(key.getBytes());
+	public long getRedisSetSize(ShardedJedis jedis, byte[] key) {
+		return jedis.scard(key);
 	}
 
-	@Override
-	public long removeFromRedisSet(String key, String value) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.srem(key.getBytes(), this.object2Bytes(value));
+	public long removeFromRedisSet(ShardedJedis jedis, byte[] key, String value) throws Exception {
+		return jedis.srem(key, this.object2Bytes(value));
 	}
 
-	@Override
-	public String getRandomStringFromRedisSet(String key) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		byte[] arr = jedis.srandmember(key.getBytes());
+	public String getRandomStringFromRedisSet(ShardedJedis jedis, byte[] key) throws Exception {
+		byte[] arr = jedis.srandmember(key);
 		return (String) this.bytes2Object(arr);
 	}
 
-	@Override
-	public Set<String> getAllElementsFromRedisSet(String key) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		Set<byte[]> byteSet = jedis.smembers(key.getBytes());
+	public Set<String> getAllElementsFromRedisSet(ShardedJedis jedis, byte[] key) throws Exception {
+		Set<byte[]> byteSet = jedis.smembers(key);
 		Set<String> retSet = new HashSet<String>();
 		for (byte[] bs : byteSet) {
 			retSet.add((String) this.bytes2Object(bs));
@@ -246,89 +318,89 @@ public class RedisCacheImpl implements RedisCache {
 		return retSet;
 	}
 
-	@Override
-	public boolean isElementExistInRedisSet(String key, String value) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.sismember(key.getBytes(), this.object2Bytes(value));
+	public boolean isElementExistInRedisSet(ShardedJedis jedis, byte[] key, String value) throws Exception {
+		return jedis.sismember(key, this.object2Bytes(value));
 	}
 
-	@Override
-	public ScanResult<String> scanRedisSet(String key, String cursor) {
-		ShardedJedis jedis = this.threadLocal.get();
-		ScanResult<String> sr = jedis.sscan(key, cursor);
+	public ScanResult<String> scanRedisSet(ShardedJedis jedis, byte[] key, String cursor) {
+		//sscan不支持二进制key
+		ScanResult<String> sr = jedis.sscan(SafeEncoder.encode(key), cursor);
 		return sr;
 	}
 
-	@Override
-	public String getFromRedisWithIndex(String key, long index) {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.lindex(key, index);
+	public String getFromRedisWithIndex(ShardedJedis jedis, byte[] key, long index) {
+		return this.decode(jedis.lindex(key, index));
 	}
 
-	@Override
-	public long setNx(String key, String value) throws Exception {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.setnx(key.getBytes(), this.object2Bytes(value));
+	public long setNx(ShardedJedis jedis, byte[] key, String value) throws Exception {
+		return jedis.setnx(key, this.object2Bytes(value));
 	}
 
-	@Override
-	public long increment(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
+	public long increment(ShardedJedis jedis, byte[] key) {
 		return jedis.incr(key);
 	}
 
-	@Override
-	public String getByStrKey(String key) {
-		ShardedJedis jedis = this.threadLocal.get();
-		return jedis.get(key);
+	public Object eval(ShardedJedis jedis, byte[] key, RedisScript script, List<String> args) {
+		Jedis shard = jedis.getShard(key);
+		List<byte[]> keys = Collections.singletonList(key);
+		List<byte[]> params = new ArrayList<byte[]>(args.size());
+		for (String arg : args) {
+			params.add(SafeEncoder.encode(arg));
+		}
+		Object reply;
+		try {
+			reply = shard.evalsha(script.getSha(), keys, params);
+		} catch (JedisDataException e) {
+			if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+				throw e;
+			}
+			//redis重启或故障转移后的新master没有该脚本，EVAL执行的同时重新加载，之后继续使用EVALSHA
+			reply = shard.eval(script.getBody(), keys, params);
+		}
+		return this.decodeReply(reply);
+	}
+
+	private Object decodeReply(Object reply) {
+		if (reply instanceof byte[]) {
+			return SafeEncoder.encode((byte[]) reply);
+		}
+		if (reply instanceof List) {
+			List<?> replies = (List<?>) reply;
+			List<Object> ret = new ArrayList<Object>(replies.size());
+			for (Object r : replies) {
+				ret.add(this.decodeReply(r));
+			}
+			return ret;
+		}
+		return reply;
 	}
 
-	@Override
-	public void putByStrKey(String key, String value) {
-		ShardedJedis jedis = this.threadLocal.get();
-		jedis.set(key, value);
+	public String getByStrKey(ShardedJedis jedis, byte[] key) {
+		return this.decode(jedis.get(key));
 	}
 
-	@Override
-	public void putToRedis(String key, Serializable value) throws Exception {
-		this.putToRedis(key, value, 0);
+	public void putByStrKey(ShardedJedis jedis, byte[] key, String value) {
+		jedis.set(key, SafeEncoder.encode(value));
 	}
 
-	@Override
-	public void putStringToRedis(String key, String value) {
-		this.putStringToRedis(key, value, 0);
+	public void putToRedis(ShardedJedis jedis, byte[] key, Serializable value) throws Exception {
+		this.putToRedis(jedis, key, value, 0);
 	}
 
-	@Override
-	public long putStringToRedisList(String key, String entry, boolean isR) {
-		return this.putStringToRedisList(key, entry, isR, 0);
+	public void putStringToRedis(ShardedJedis jedis, byte[] key, String value) {
+		this.putStringToRedis(jedis, key, value, 0);
 	}
 
-	@Override
-	public long putToRedisList(String key, Serializable entry, boolean isR) throws Exception {
-		return this.putToRedisList(key, entry, isR, 0);
+	public long putStringToRedisList(ShardedJedis jedis, byte[] key, String entry, boolean isR) {
+		return this.putStringToRedisList(jedis, key, entry, isR, 0);
 	}
 
-	@Override
-	public long putStringToRedisMap(String key, String field, String value) {
-		return this.putStringToRedisMap(key, field, value, 0);
+	public long putToRedisList(ShardedJedis jedis, byte[] key, Serializable entry, boolean isR) throws Exception {
+		return this.putToRedisList(jedis, key, entry, isR, 0);
 	}
-	
-	@Override
-	public void setShardedJedis(ShardedJedis jedis) {
-		this.threadLocal.set(jedis);
+
+	public long putStringToRedisMap(ShardedJedis jedis, byte[] key, String field, String value) {
+		return this.putStringToRedisMap(jedis, key, field, value, 0);
 	}
 
 }
-
-
-
-
-
-
-
-
-
-
-
-
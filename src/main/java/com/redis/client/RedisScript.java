@@ -0,0 +1,53 @@
+package com.redis.client;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * Lua脚本，创建时计算一次SHA1，执行时先使用EVALSHA，redis上没有该脚本(NOSCRIPT)时改用EVAL并同时加载
+ * 脚本只能通过KEYS[1]访问路由用的key，其余参数通过ARGV传入；
+ * 例如从列表弹出并推入另一个key时，两个key需要位于同一个master上
+ * 应当作为常量创建并复用
+ * @author jiangchunzhi
+ *
+ */
+public final class RedisScript {
+
+	private final byte[] body;
+
+	//SHA1的16进制小写形式，作为EVALSHA的参数
+	private final byte[] sha;
+
+	public RedisScript(String script) {
+		this.body = SafeEncoder.encode(script);
+		this.sha = SafeEncoder.encode(sha1(this.body));
+	}
+
+	private static String sha1(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	byte[] getBody() {
+		return body;
+	}
+
+	byte[] getSha() {
+		return sha;
+	}
+
+	public String getShaHex() {
+		return SafeEncoder.encode(sha);
+	}
+
+}
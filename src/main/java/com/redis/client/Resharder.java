@@ -0,0 +1,531 @@
+package com.redis.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
+
+import com.redis.jedis.JedisPool;
+import com.redis.jedis.RingSnapshot;
+import com.redis.jedis.ShardCommand;
+import com.redis.jedis.ShardedPoolManager;
+import com.redis.jedis.TopologyListener;
+
+/**
+ * 后台重新分片：master增减后，在原有的master上按批次SCAN所有key，
+ * 把按新Hash环不再属于该master的key迁移到所属master，迁移方式见KeyMigrator
+ * 迁移期间打开RedisCacheHandler的重Hash读，全部迁移成功后自动关闭，读请求恢复为一次访问
+ * 迁移过程中拓扑再次变化时，当前任务在下一批次停止，由新任务按新的Hash环重新扫描
+ * 多个客户端同时启用时，通过redis上的租约保证只有一个客户端执行迁移，其他客户端等待完成标记后关闭重Hash读
+ * @author jiangchunzhi
+ *
+ */
+public class Resharder implements TopologyListener {
+
+	private Logger log = Logger.getLogger(this.getClass());
+
+	private static final byte[] SCAN_END = ScanParams.SCAN_POINTER_START_BINARY;
+
+	//单批次失败后的重试次数和间隔
+	private static final int MAX_RETRIES = 3;
+
+	private static final long RETRY_WAIT_MILLIS = 1000;
+
+	//迁移租约，同一时刻只有持有租约的客户端执行迁移，执行期间每个批次续期
+	private static final byte[] LEASE_KEY = SafeEncoder.encode("redis-high-available:reshard:lease");
+
+	private static final int LEASE_MILLIS = 30000;
+
+	//迁移完成标记，值为完成时的拓扑签名，等待中的其他客户端据此关闭重Hash读
+	private static final byte[] DONE_KEY = SafeEncoder.encode("redis-high-available:reshard:done");
+
+	private static final int DONE_SECONDS = 86400;
+
+	private static final byte[] NX = SafeEncoder.encode("NX");
+
+	private static final byte[] PX = SafeEncoder.encode("PX");
+
+	private static final byte[] RENEW = SafeEncoder.encode("if redis.call('get', KEYS[1]) == ARGV[1] then "
+			+ "return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end");
+
+	private static final byte[] RELEASE = SafeEncoder.encode("if redis.call('get', KEYS[1]) == ARGV[1] then "
+			+ "return redis.call('del', KEYS[1]) else return 0 end");
+
+	//本客户端的租约标识
+	private final byte[] clientId = SafeEncoder.encode(UUID.randomUUID().toString());
+
+	private final ShardedPoolManager spm;
+
+	private final RedisCacheHandler handler;
+
+	//每次SCAN的key个数
+	private final int batchSize;
+
+	//每秒最多扫描的key个数
+	private final int keysPerSecond;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "redis-resharder");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	//任务编号，新任务开始时递增，旧任务发现编号变化后停止
+	private final AtomicLong generation = new AtomicLong();
+
+	private volatile boolean running;
+
+	private volatile int totalMasters;
+
+	private volatile int completedMasters;
+
+	private final AtomicLong scanned = new AtomicLong();
+
+	private final AtomicLong moved = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	Resharder(ShardedPoolManager spm, RedisCacheHandler handler, int batchSize, int keysPerSecond) {
+		this.spm = spm;
+		this.handler = handler;
+		this.batchSize = batchSize;
+		this.keysPerSecond = keysPerSecond;
+	}
+
+	/**
+	 * master增减后扫描原有的master和已经离开的master，新增的master上不会有需要迁出的key；
+	 * 离开的master不在新的Hash环上，上面的key全部迁出
+	 */
+	@Override
+	public void ringChanged(RingSnapshot previous, RingSnapshot current) {
+		List<Source> sources = new ArrayList<Source>();
+		for (int i = 0; i < current.masterCount(); i++) {
+			if (indexOf(previous, current.getMasterName(i)) >= 0) {
+				sources.add(new Source(current.getMasterName(i), i, null));
+			}
+		}
+		for (int j = 0; j < previous.masterCount(); j++) {
+			if (indexOf(current, previous.getMasterName(j)) < 0) {
+				sources.add(new Source(previous.getMasterName(j), -1, previous.getMasterPool(j).getHost()));
+			}
+		}
+		this.submit(current, sources);
+	}
+
+	private static int indexOf(RingSnapshot ring, String master) {
+		for (int i = 0; i < ring.masterCount(); i++) {
+			if (ring.getMasterName(i).equals(master)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 按当前Hash环扫描所有master，例如客户端启动时确认没有遗留的待迁移key
+	 */
+	public void start() {
+		RingSnapshot ring = this.spm.getRing();
+		List<Source> sources = new ArrayList<Source>();
+		for (int i = 0; i < ring.masterCount(); i++) {
+			sources.add(new Source(ring.getMasterName(i), i, null));
+		}
+		this.submit(ring, sources);
+	}
+
+	/**
+	 * 停止正在执行的任务，重Hash读保持打开
+	 */
+	public void stop() {
+		this.generation.incrementAndGet();
+	}
+
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	public int getTotalMasters() {
+		return this.totalMasters;
+	}
+
+	public int getCompletedMasters() {
+		return this.completedMasters;
+	}
+
+	public long getScanned() {
+		return this.scanned.get();
+	}
+
+	public long getMoved() {
+		return this.moved.get();
+	}
+
+	public long getFailed() {
+		return this.failed.get();
+	}
+
+	public String getProgress() {
+		return "running=" + this.running + ", masters=" + this.completedMasters + "/" + this.totalMasters
+				+ ", scanned=" + this.scanned.get() + ", moved=" + this.moved.get() + ", failed=" + this.failed.get();
+	}
+
+	private void submit(final RingSnapshot ring, final List<Source> sources) {
+		final long gen = this.generation.incrementAndGet();
+		//在迁移开始之前打开重Hash读
+		this.handler.setRehash(true);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				reshard(gen, ring, sources);
+			}
+		});
+	}
+
+	private boolean cancelled(long gen) {
+		return this.generation.get() != gen;
+	}
+
+	private void reshard(long gen, RingSnapshot ring, List<Source> sources) {
+		if (this.cancelled(gen)) {
+			return;
+		}
+		JedisPool leasePool = leasePool(ring);
+		if (!this.acquireLease(leasePool)) {
+			//其他客户端正在迁移，等待其完成
+			this.awaitOther(gen, ring, leasePool);
+			return;
+		}
+		this.running = true;
+		this.totalMasters = sources.size();
+		this.completedMasters = 0;
+		this.scanned.set(0);
+		this.moved.set(0);
+		this.failed.set(0);
+		long start = System.currentTimeMillis();
+		log.info("resharding started, masters=" + sources.size());
+		try {
+			for (Source source : sources) {
+				//离开的master已经不在Hash环上，使用临时连接池
+				JedisPool sourcePool = source.owner >= 0 ? ring.getMasterPool(source.owner) : new JedisPool(source.host);
+				ScanState state;
+				try {
+					state = this.scanMaster(gen, ring, source, sourcePool, leasePool, start);
+				} finally {
+					if (source.owner < 0) {
+						sourcePool.destory();
+					}
+				}
+				if (state == ScanState.CANCELLED) {
+					log.info("resharding cancelled, " + this.getProgress());
+					return;
+				}
+				if (state == ScanState.FAILED) {
+					//不计入完成，继续其他master，重Hash读保持打开
+					log.error("resharding master [" + source.name + "] aborted, " + this.getProgress());
+					continue;
+				}
+				this.completedMasters++;
+				log.info("resharding master [" + source.name + "] done, " + this.getProgress());
+			}
+			if (this.failed.get() == 0) {
+				this.markDone(leasePool, ring);
+				this.handler.setRehash(false);
+				log.info("resharding finished, rehash read disabled, " + this.getProgress());
+			} else {
+				log.warn("resharding finished with failures, rehash read stays enabled, " + this.getProgress());
+			}
+		} finally {
+			this.running = false;
+			this.releaseLease(leasePool);
+		}
+	}
+
+	/**
+	 * 扫描一个master，迁出不属于它的key；单批次失败时从同一个游标重试，超过次数后放弃该master
+	 */
+	private ScanState scanMaster(long gen, RingSnapshot ring, Source source, JedisPool sourcePool,
+			JedisPool leasePool, long start) {
+		ScanParams params = new ScanParams().count(this.batchSize);
+		byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+		int retries = 0;
+		for (;;) {
+			if (this.cancelled(gen)) {
+				return ScanState.CANCELLED;
+			}
+			if (!this.renewLease(leasePool)) {
+				log.warn("resharding lease lost, stop resharding");
+				return ScanState.CANCELLED;
+			}
+			try {
+				//整个批次成功后才前进游标，失败时重新扫描同一批次
+				cursor = this.scanBatch(ring, source, sourcePool, cursor, params);
+				retries = 0;
+			} catch (Exception e) {
+				if (++retries > MAX_RETRIES) {
+					//无法确认该master已经迁移完成
+					log.error("resharding scan failed on [" + source.name + "], give up after " + MAX_RETRIES + " retries", e);
+					this.failed.incrementAndGet();
+					return ScanState.FAILED;
+				}
+				log.warn("resharding scan failed on [" + source.name + "], retry " + retries, e);
+				if (!sleep(RETRY_WAIT_MILLIS)) {
+					return ScanState.CANCELLED;
+				}
+				continue;
+			}
+			if (Arrays.equals(cursor, SCAN_END)) {
+				return ScanState.DONE;
+			}
+			if (!this.throttle(start)) {
+				return ScanState.CANCELLED;
+			}
+		}
+	}
+
+	/**
+	 * 扫描一个批次并迁出其中不属于该master的key，连接通过JedisPool.execute借用
+	 * @return 下一个游标
+	 */
+	private byte[] scanBatch(final RingSnapshot ring, final Source source, JedisPool sourcePool, final byte[] cursor,
+			final ScanParams params) throws Exception {
+		return (byte[]) sourcePool.execute(new ShardCommand() {
+			@Override
+			public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+				Jedis sourceJedis = jedis.getAllShards().iterator().next();
+				ScanResult<byte[]> result = sourceJedis.scan(cursor, params);
+
+				//按所属master分组，每个目标master只借用一次连接
+				Map<Integer, List<byte[]>> targets = new HashMap<Integer, List<byte[]>>();
+				for (byte[] rawKey : result.getResult()) {
+					//租约和完成标记固定保存在租约master上，不按Hash环迁移
+					if (isCoordinationKey(rawKey)) {
+						continue;
+					}
+					int target = ring.getOwner(ring.locate(spm.getHash(rawKey)));
+					if (target == source.owner) {
+						continue;
+					}
+					List<byte[]> keys = targets.get(target);
+					if (keys == null) {
+						keys = new ArrayList<byte[]>();
+						targets.put(target, keys);
+					}
+					keys.add(rawKey);
+				}
+				for (Entry<Integer, List<byte[]>> entry : targets.entrySet()) {
+					moveKeys(sourceJedis, ring.getMasterPool(entry.getKey()), entry.getValue());
+				}
+				scanned.addAndGet(result.getResult().size());
+				return result.getCursorAsBytes();
+			}
+		}, null);
+	}
+
+	private void moveKeys(final Jedis source, JedisPool target, final List<byte[]> keys) throws Exception {
+		target.execute(new ShardCommand() {
+			@Override
+			public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+				Jedis targetJedis = jedis.getAllShards().iterator().next();
+				for (byte[] rawKey : keys) {
+					try {
+						if (KeyMigrator.move(source, targetJedis, rawKey)) {
+							moved.incrementAndGet();
+						}
+					} catch (JedisConnectionException e) {
+						//连接已经不可用，停止本批次，由调用方按SCAN失败处理
+						throw e;
+					} catch (Exception e) {
+						log.warn("resharding move failed", e);
+						failed.incrementAndGet();
+					}
+				}
+				return null;
+			}
+		}, null);
+	}
+
+	private static boolean isCoordinationKey(byte[] rawKey) {
+		return Arrays.equals(rawKey, LEASE_KEY) || Arrays.equals(rawKey, DONE_KEY);
+	}
+
+	/**
+	 * 租约和完成标记保存在名称最小的master上，所有客户端对同一拓扑选择同一个master
+	 */
+	private static JedisPool leasePool(RingSnapshot ring) {
+		int lease = 0;
+		for (int i = 1; i < ring.masterCount(); i++) {
+			if (ring.getMasterName(i).compareTo(ring.getMasterName(lease)) < 0) {
+				lease = i;
+			}
+		}
+		return ring.getMasterPool(lease);
+	}
+
+	/**
+	 * 拓扑签名：排序后的master名称，同一拓扑在所有客户端上相同
+	 */
+	private static byte[] signature(RingSnapshot ring) {
+		String[] names = new String[ring.masterCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = ring.getMasterName(i);
+		}
+		Arrays.sort(names);
+		return SafeEncoder.encode(Arrays.toString(names));
+	}
+
+	private boolean acquireLease(JedisPool leasePool) {
+		try {
+			Object ret = leasePool.execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					return jedis.getShard(LEASE_KEY).set(LEASE_KEY, clientId, NX, PX, LEASE_MILLIS);
+				}
+			}, null);
+			return "OK".equals(ret);
+		} catch (Exception e) {
+			log.warn("acquire resharding lease failed", e);
+			return false;
+		}
+	}
+
+	private boolean renewLease(JedisPool leasePool) {
+		try {
+			Object ret = leasePool.execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					return jedis.getShard(LEASE_KEY).eval(RENEW, Collections.singletonList(LEASE_KEY),
+							Arrays.asList(clientId, SafeEncoder.encode(String.valueOf(LEASE_MILLIS))));
+				}
+			}, null);
+			return Long.valueOf(1).equals(ret);
+		} catch (Exception e) {
+			log.warn("renew resharding lease failed", e);
+			return false;
+		}
+	}
+
+	private void releaseLease(JedisPool leasePool) {
+		try {
+			leasePool.execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					return jedis.getShard(LEASE_KEY).eval(RELEASE, Collections.singletonList(LEASE_KEY),
+							Collections.singletonList(clientId));
+				}
+			}, null);
+		} catch (Exception e) {
+			log.warn("release resharding lease failed, it expires in " + LEASE_MILLIS + "ms", e);
+		}
+	}
+
+	private void markDone(JedisPool leasePool, final RingSnapshot ring) {
+		try {
+			leasePool.execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+					return jedis.getShard(DONE_KEY).setex(DONE_KEY, DONE_SECONDS, signature(ring));
+				}
+			}, null);
+		} catch (Exception e) {
+			log.warn("mark resharding done failed", e);
+		}
+	}
+
+	/**
+	 * 等待持有租约的客户端释放租约，完成标记与当前拓扑一致时关闭重Hash读
+	 */
+	private void awaitOther(long gen, final RingSnapshot ring, JedisPool leasePool) {
+		log.info("another client is resharding, wait for it");
+		while (sleep(LEASE_MILLIS / 3)) {
+			if (this.cancelled(gen)) {
+				return;
+			}
+			try {
+				Object done = leasePool.execute(new ShardCommand() {
+					@Override
+					public Object execute(ShardedJedis jedis, Object[] args) throws Exception {
+						Jedis j = jedis.getShard(LEASE_KEY);
+						return j.exists(LEASE_KEY) ? null : Arrays.equals(signature(ring), j.get(DONE_KEY));
+					}
+				}, null);
+				if (done == null) {
+					continue;
+				}
+				if (Boolean.TRUE.equals(done)) {
+					this.handler.setRehash(false);
+					log.info("resharding finished by another client, rehash read disabled");
+				} else {
+					log.warn("resharding by another client did not finish, rehash read stays enabled");
+				}
+				return;
+			} catch (Exception e) {
+				log.warn("check resharding lease failed", e);
+			}
+		}
+	}
+
+	private static boolean sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * 按每秒扫描的key个数限速
+	 * @return 等待时被中断返回false
+	 */
+	private boolean throttle(long start) {
+		long expected = this.scanned.get() * 1000 / this.keysPerSecond;
+		long wait = expected - (System.currentTimeMillis() - start);
+		return wait <= 0 || sleep(wait);
+	}
+
+	private enum ScanState {
+		DONE, CANCELLED, FAILED
+	}
+
+	/**
+	 * 待扫描的master
+	 */
+	private static class Source {
+
+		final String name;
+
+		//在新Hash环上的下标，已经离开的master为-1
+		final int owner;
+
+		//已经离开的master的ip:port
+		final String host;
+
+		Source(String name, int owner, String host) {
+			this.name = name;
+			this.owner = owner;
+			this.host = host;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.redis.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 分段的有界LRU缓存，NegativeLookupCache和KeyLocationHints共用
+ * 按key分为STRIPES段，每段是一个访问顺序的LinkedHashMap，在段锁内读写，超过每段容量时淘汰最久未访问的一条，
+ * 插入和淘汰都是O(1)；每段维护一个版本号，写操作通过invalidate递增，
+ * 读之前取得版本号，记录时版本号已变化则放弃记录，避免读写并发时记录过期的结果
+ * @author jiangchunzhi
+ *
+ * @param <K>
+ * @param <V>
+ */
+class StripedLruCache<K, V> {
+
+	private static final int STRIPES = 64;
+
+	private final Stripe<K, V>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	StripedLruCache(int maxSize) {
+		//每段至少一条，总条数不超过max(maxSize, STRIPES)
+		int capacity = Math.max(1, (maxSize + STRIPES - 1) / STRIPES);
+		this.stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new Stripe<K, V>(capacity);
+		}
+	}
+
+	/**
+	 * 读之前获取key所在段的版本号，传给put
+	 * @param key
+	 * @return
+	 */
+	long stamp(K key) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.stamp;
+		}
+	}
+
+	V get(K key) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			return stripe.get(key);
+		}
+	}
+
+	/**
+	 * 记录key，读之后所在段有写操作时不记录
+	 * @param key
+	 * @param value
+	 * @param stamp 读之前获取的版本号
+	 */
+	void put(K key, V value, long stamp) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			if (stripe.stamp == stamp) {
+				stripe.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * 仅当当前值为value时删除
+	 */
+	void remove(K key, V value) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			if (value.equals(stripe.get(key))) {
+				stripe.remove(key);
+			}
+		}
+	}
+
+	void remove(K key) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			stripe.remove(key);
+		}
+	}
+
+	/**
+	 * 写操作后调用，递增所在段的版本号并清除key
+	 * @param key
+	 */
+	void invalidate(K key) {
+		Stripe<K, V> stripe = this.stripe(key);
+		synchronized (stripe) {
+			stripe.stamp++;
+			stripe.remove(key);
+		}
+	}
+
+	private Stripe<K, V> stripe(K key) {
+		int h = key.hashCode();
+		return this.stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+	}
+
+	private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		//每次写操作递增
+		long stamp;
+
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return this.size() > this.capacity;
+		}
+	}
+
+}
@@ -0,0 +1,397 @@
+package com.redis.codec;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.redis.util.ByteUtils;
+
+/**
+ * 紧凑二进制编码：第一个字节是类型标记，之后是值
+ * 支持String、基本类型的包装类、byte[]、ArrayList、HashMap、LinkedHashMap、HashSet(元素递归编码)以及通过register注册的类型，
+ * 整数使用zigzag变长编码，不写类描述信息
+ * 其他类型整体使用Java序列化，输出以0xAC 0xED开头，所以decode同时可以读取原有的Java序列化数据；
+ * 集合中的其他类型元素单独使用Java序列化
+ * 只按精确的类匹配，解码得到的对象与编码前的对象类型相同
+ * @author jiangchunzhi
+ *
+ */
+public class BinaryCodec implements ValueCodec {
+
+	/**
+	 * 应用类型的编码器，写入和读取的内容由实现自行约定
+	 * @param <T>
+	 */
+	public interface TypeSerializer<T> {
+
+		public void write(T value, DataOutput out) throws IOException;
+
+		public T read(DataInput in) throws IOException;
+	}
+
+	//类型标记，不能与Java序列化的第一个字节0xAC相同
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int INT = 2;
+	private static final int LONG = 3;
+	private static final int DOUBLE = 4;
+	private static final int FLOAT = 5;
+	private static final int SHORT = 6;
+	private static final int BYTE = 7;
+	private static final int TRUE = 8;
+	private static final int FALSE = 9;
+	private static final int CHAR = 10;
+	private static final int BYTES = 11;
+	private static final int LIST = 12;
+	private static final int MAP = 13;
+	private static final int LINKED_MAP = 14;
+	private static final int SET = 15;
+	private static final int CUSTOM = 16;
+	private static final int SERIALIZED = 17;
+
+	private static final Map<Class<?>, Integer> TAGS = new HashMap<Class<?>, Integer>();
+
+	static {
+		TAGS.put(String.class, STRING);
+		TAGS.put(Integer.class, INT);
+		TAGS.put(Long.class, LONG);
+		TAGS.put(Double.class, DOUBLE);
+		TAGS.put(Float.class, FLOAT);
+		TAGS.put(Short.class, SHORT);
+		TAGS.put(Byte.class, BYTE);
+		TAGS.put(Boolean.class, TRUE);
+		TAGS.put(Character.class, CHAR);
+		TAGS.put(byte[].class, BYTES);
+		TAGS.put(ArrayList.class, LIST);
+		TAGS.put(HashMap.class, MAP);
+		TAGS.put(LinkedHashMap.class, LINKED_MAP);
+		TAGS.put(HashSet.class, SET);
+	}
+
+	private static class Registration {
+
+		final int typeId;
+
+		final TypeSerializer<Object> serializer;
+
+		Registration(int typeId, TypeSerializer<Object> serializer) {
+			this.typeId = typeId;
+			this.serializer = serializer;
+		}
+	}
+
+	private final ConcurrentHashMap<Class<?>, Registration> byType = new ConcurrentHashMap<Class<?>, Registration>();
+
+	private final ConcurrentHashMap<Integer, Registration> byId = new ConcurrentHashMap<Integer, Registration>();
+
+	/**
+	 * 注册应用类型，所有读写同一批数据的客户端必须使用相同的typeId
+	 * @param typeId 不小于0，不能重复
+	 * @param type 精确匹配，不包括子类
+	 * @param serializer
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> void register(int typeId, Class<T> type, TypeSerializer<T> serializer) {
+		if (typeId < 0) {
+			throw new IllegalArgumentException("typeId must not be negative");
+		}
+		if (TAGS.containsKey(type) || this.byType.containsKey(type) || this.byId.containsKey(typeId)) {
+			throw new IllegalArgumentException("type " + type.getName() + " or typeId " + typeId + " already registered");
+		}
+		Registration registration = new Registration(typeId, (TypeSerializer<Object>) serializer);
+		this.byId.put(typeId, registration);
+		this.byType.put(type, registration);
+	}
+
+	@Override
+	public byte[] encode(Object value) throws Exception {
+		if (!TAGS.containsKey(value.getClass()) && !this.byType.containsKey(value.getClass())) {
+			return JavaSerializationCodec.INSTANCE.encode(value);
+		}
+		Output bo = new Output();
+		this.write(value, new DataOutputStream(bo));
+		return bo.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] bytes) throws Exception {
+		if (JavaSerializationCodec.isSerialized(bytes)) {
+			return JavaSerializationCodec.INSTANCE.decode(bytes);
+		}
+		return this.read(new DataInputStream(new Input(bytes)));
+	}
+
+	private void write(Object value, DataOutputStream out) throws Exception {
+		if (value == null) {
+			out.writeByte(NULL);
+			return;
+		}
+		Integer tag = TAGS.get(value.getClass());
+		if (tag == null) {
+			Registration registration = this.byType.get(value.getClass());
+			if (registration != null) {
+				out.writeByte(CUSTOM);
+				writeVarLong(registration.typeId, out);
+				registration.serializer.write(value, out);
+			} else {
+				byte[] bytes = JavaSerializationCodec.INSTANCE.encode(value);
+				out.writeByte(SERIALIZED);
+				writeVarLong(bytes.length, out);
+				out.write(bytes);
+			}
+			return;
+		}
+		switch (tag) {
+		case STRING:
+			out.writeByte(STRING);
+			writeBytes(((String) value).getBytes(ByteUtils.DEFAULT_CHARSET), out);
+			break;
+		case INT:
+			out.writeByte(INT);
+			writeVarLong(zigzag((Integer) value), out);
+			break;
+		case LONG:
+			out.writeByte(LONG);
+			writeVarLong(zigzag((Long) value), out);
+			break;
+		case DOUBLE:
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+			break;
+		case FLOAT:
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+			break;
+		case SHORT:
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+			break;
+		case BYTE:
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+			break;
+		case TRUE:
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+			break;
+		case CHAR:
+			out.writeByte(CHAR);
+			out.writeChar((Character) value);
+			break;
+		case BYTES:
+			out.writeByte(BYTES);
+			writeBytes((byte[]) value, out);
+			break;
+		case LIST:
+			List<?> list = (List<?>) value;
+			out.writeByte(LIST);
+			writeVarLong(list.size(), out);
+			for (Object element : list) {
+				this.write(element, out);
+			}
+			break;
+		case SET:
+			Set<?> set = (Set<?>) value;
+			out.writeByte(SET);
+			writeVarLong(set.size(), out);
+			for (Object element : set) {
+				this.write(element, out);
+			}
+			break;
+		default:
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(tag);
+			writeVarLong(map.size(), out);
+			for (Entry<?, ?> entry : map.entrySet()) {
+				this.write(entry.getKey(), out);
+				this.write(entry.getValue(), out);
+			}
+		}
+	}
+
+	private Object read(DataInputStream in) throws Exception {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(in), ByteUtils.DEFAULT_CHARSET);
+		case INT:
+			return (int) unzigzag(readVarLong(in));
+		case LONG:
+			return unzigzag(readVarLong(in));
+		case DOUBLE:
+			return in.readDouble();
+		case FLOAT:
+			return in.readFloat();
+		case SHORT:
+			return in.readShort();
+		case BYTE:
+			return in.readByte();
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case CHAR:
+			return in.readChar();
+		case BYTES:
+			return readBytes(in);
+		case LIST: {
+			int size = (int) readVarLong(in);
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(this.read(in));
+			}
+			return list;
+		}
+		case SET: {
+			int size = (int) readVarLong(in);
+			Set<Object> set = new HashSet<Object>(Math.max(16, (int) (size / .75f) + 1));
+			for (int i = 0; i < size; i++) {
+				set.add(this.read(in));
+			}
+			return set;
+		}
+		case MAP:
+		case LINKED_MAP: {
+			int size = (int) readVarLong(in);
+			int capacity = Math.max(16, (int) (size / .75f) + 1);
+			Map<Object, Object> map = tag == MAP ? new HashMap<Object, Object>(capacity)
+					: new LinkedHashMap<Object, Object>(capacity);
+			for (int i = 0; i < size; i++) {
+				Object key = this.read(in);
+				map.put(key, this.read(in));
+			}
+			return map;
+		}
+		case CUSTOM: {
+			int typeId = (int) readVarLong(in);
+			Registration registration = this.byId.get(typeId);
+			if (registration == null) {
+				throw new IOException("unregistered typeId " + typeId);
+			}
+			return registration.serializer.read(in);
+		}
+		case SERIALIZED:
+			return JavaSerializationCodec.INSTANCE.decode(readBytes(in));
+		default:
+			throw new IOException("unknown type tag " + tag);
+		}
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarLong(long v, DataOutputStream out) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("malformed varint");
+	}
+
+	private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		writeVarLong(bytes.length, out);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[(int) readVarLong(in)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * 不加锁的字节输出，ByteArrayOutputStream每写一个字节都要加锁
+	 */
+	private static final class Output extends OutputStream {
+
+		private byte[] buf = new byte[64];
+
+		private int count;
+
+		private void ensure(int n) {
+			if (this.count + n > this.buf.length) {
+				this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length << 1, this.count + n));
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			this.ensure(1);
+			this.buf[this.count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.ensure(len);
+			System.arraycopy(b, off, this.buf, this.count, len);
+			this.count += len;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(this.buf, this.count);
+		}
+	}
+
+	/**
+	 * 不加锁的字节输入
+	 */
+	private static final class Input extends InputStream {
+
+		private final byte[] buf;
+
+		private int pos;
+
+		Input(byte[] buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public int read() {
+			return this.pos < this.buf.length ? this.buf[this.pos++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (this.pos >= this.buf.length) {
+				return -1;
+			}
+			int n = Math.min(len, this.buf.length - this.pos);
+			System.arraycopy(this.buf, this.pos, b, off, n);
+			this.pos += n;
+			return n;
+		}
+	}
+
+}
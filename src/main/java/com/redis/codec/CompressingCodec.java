@@ -0,0 +1,166 @@
+package com.redis.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩编码：包装其他编码，编码结果不小于threshold字节时使用Deflater(BEST_SPEED)压缩，
+ * 压缩后变小才保存压缩结果，格式为 标记字节0xC1 + 原长度(变长整数) + 压缩数据
+ * 小于threshold或压缩无效的值原样保存，解码时按第一个字节区分，所以可以直接读取未压缩的已有数据；
+ * 被包装的编码输出的第一个字节不能是0xC1(Java序列化以0xAC开头，BinaryCodec的类型标记都小于0x20)
+ * @author jiangchunzhi
+ *
+ */
+public class CompressingCodec implements ValueCodec {
+
+	private static final byte MARKER = (byte) 0xC1;
+
+	//Deflater和Inflater创建时分配本地内存，用完放回有界的池中复用，池满时立即end()释放；
+	//不使用ThreadLocal，线程很多(例如虚拟线程)时不会每个线程各持有一份本地内存
+	private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+	private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<Deflater>(POOL_SIZE);
+
+	private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+	private final ValueCodec delegate;
+
+	private final int threshold;
+
+	//压缩保存的值个数，以及这些值压缩前、压缩后的总字节数
+	private final AtomicLong compressed = new AtomicLong();
+
+	private final AtomicLong rawBytes = new AtomicLong();
+
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	/**
+	 * @param delegate 被包装的编码
+	 * @param threshold 编码结果达到该字节数时尝试压缩
+	 */
+	public CompressingCodec(ValueCodec delegate, int threshold) {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		this.delegate = delegate;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public byte[] encode(Object value) throws Exception {
+		byte[] raw = this.delegate.encode(value);
+		if (raw.length < this.threshold) {
+			return raw;
+		}
+		Deflater deflater = DEFLATERS.poll();
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		try {
+			return this.deflate(deflater, raw);
+		} finally {
+			deflater.reset();
+			if (!DEFLATERS.offer(deflater)) {
+				deflater.end();
+			}
+		}
+	}
+
+	private byte[] deflate(Deflater deflater, byte[] raw) {
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+		out.write(MARKER);
+		//原长度，解码时一次分配
+		int len = raw.length;
+		while ((len & ~0x7F) != 0) {
+			out.write((len & 0x7F) | 0x80);
+			len >>>= 7;
+		}
+		out.write(len);
+		byte[] buf = new byte[4096];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			out.write(buf, 0, n);
+			if (out.size() >= raw.length) {
+				//压缩无效
+				return raw;
+			}
+		}
+		this.compressed.incrementAndGet();
+		this.rawBytes.addAndGet(raw.length);
+		this.compressedBytes.addAndGet(out.size());
+		return out.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] bytes) throws Exception {
+		if (bytes[0] != MARKER) {
+			return this.delegate.decode(bytes);
+		}
+		int pos = 1;
+		int len = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = bytes[pos++];
+			len |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		Inflater inflater = INFLATERS.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		byte[] raw = new byte[len];
+		int n = 0;
+		try {
+			inflater.setInput(bytes, pos, bytes.length - pos);
+			while (n < len) {
+				int r = inflater.inflate(raw, n, len - n);
+				if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				n += r;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt compressed value", e);
+		} finally {
+			inflater.reset();
+			if (!INFLATERS.offer(inflater)) {
+				inflater.end();
+			}
+		}
+		if (n != len) {
+			throw new IOException("truncated compressed value, expect " + len + " bytes but got " + n);
+		}
+		return this.delegate.decode(raw);
+	}
+
+	/**
+	 * 压缩保存的值个数
+	 */
+	public long getCompressedCount() {
+		return this.compressed.get();
+	}
+
+	/**
+	 * 压缩保存的值压缩后与压缩前的字节数之比，没有压缩过时返回1
+	 */
+	public double getCompressionRatio() {
+		long raw = this.rawBytes.get();
+		return raw == 0 ? 1 : (double) this.compressedBytes.get() / raw;
+	}
+
+	/**
+	 * 压缩节省的总字节数
+	 */
+	public long getSavedBytes() {
+		return this.rawBytes.get() - this.compressedBytes.get();
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.redis.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Java序列化编码，输出以0xAC 0xED开头，与原有写入redis的数据格式一致
+ * @author jiangchunzhi
+ *
+ */
+public class JavaSerializationCodec implements ValueCodec {
+
+	public static final JavaSerializationCodec INSTANCE = new JavaSerializationCodec();
+
+	/**
+	 * 是否是Java序列化的数据(STREAM_MAGIC)
+	 * @param bytes
+	 * @return
+	 */
+	public static boolean isSerialized(byte[] bytes) {
+		return bytes.length > 1 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+	}
+
+	@Override
+	public byte[] encode(Object value) throws Exception {
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		ObjectOutputStream oo = new ObjectOutputStream(bo);
+		oo.writeObject(value);
+		oo.close();
+		return bo.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] bytes) throws Exception {
+		ObjectInputStream oi = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return oi.readObject();
+		} finally {
+			oi.close();
+		}
+	}
+
+}
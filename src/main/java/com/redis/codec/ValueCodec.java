@@ -0,0 +1,27 @@
+package com.redis.codec;
+
+/**
+ * 值编码接口，负责对象和redis中保存的字节之间的转换，实现必须是线程安全的
+ * null和空数组由调用方处理，不会传给实现
+ * @author jiangchunzhi
+ *
+ */
+public interface ValueCodec {
+
+	/**
+	 * 对象转换为字节
+	 * @param value 不为null
+	 * @return
+	 * @throws Exception
+	 */
+	public byte[] encode(Object value) throws Exception;
+
+	/**
+	 * 字节转换为对象
+	 * @param bytes 不为null，长度大于0
+	 * @return
+	 * @throws Exception
+	 */
+	public Object decode(byte[] bytes) throws Exception;
+
+}
@@ -2,12 +2,18 @@ package com.redis.jedis;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedis;
 import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 
 /**
  * Jedis连接池
@@ -20,23 +26,79 @@ public class JedisPool {
 	
 	private ShardedJedisPool shardedJedisPool;
 	
+	//ip:port
+	private final String host;
+	
+	public String getHost() {
+		return host;
+	}
+	
 	public ShardedJedisPool getShardedJedisPool() {
 		return shardedJedisPool;
 	}
 
+	//正在该redis上执行的请求数
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * 请求开始执行时调用
+	 */
+	public void incrementInFlight() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * 请求执行结束时调用
+	 */
+	public void decrementInFlight() {
+		inFlight.decrementAndGet();
+	}
+
+	//连接借用许可，为null时不限制，由连接池的maxTotal和maxWaitMillis控制
+	private final Semaphore permits;
+
+	//获取许可的最长等待时间(毫秒)
+	private static final long MAX_WAIT_MILLIS = 5000;
+
+	//启用许可时，连接池在许可数之外保留的连接数
+	private static final int RESERVED_CONNECTIONS = 8;
+
 	/**
 	 * 创建Jedis连接池
 	 * @param redisHost
 	 * @return
 	 */
 	public JedisPool(String redisHost){
-		log.info("redisHost=" + redisHost);
+		this(redisHost, 0);
+	}
+
+	/**
+	 * 创建Jedis连接池
+	 * @param redisHost
+	 * @param maxConcurrency 同时执行的最大请求数，大于0时使用公平信号量限制借用连接，连接池不再阻塞等待，0表示不限制
+	 */
+	public JedisPool(String redisHost, int maxConcurrency){
+		log.info("redisHost=" + redisHost + ", maxConcurrency=" + maxConcurrency);
+		this.host = redisHost;
 		
 		//封装配置信息
 		JedisPoolConfig config = new JedisPoolConfig();
-		config.setMaxTotal(5000);
-		config.setMaxIdle(100);
-		config.setMaxWaitMillis(5000);
+		if (maxConcurrency > 0) {
+			//通过execute借用连接的请求数不会超过许可数；
+			//getShardedJedisPool()直接借用的连接不受许可限制，为其多保留RESERVED_CONNECTIONS个连接
+			this.permits = new Semaphore(maxConcurrency, true);
+			config.setMaxTotal(maxConcurrency + RESERVED_CONNECTIONS);
+			config.setMaxIdle(Math.min(100, maxConcurrency));
+		} else {
+			this.permits = null;
+			config.setMaxTotal(5000);
+			config.setMaxIdle(100);
+		}
+		config.setMaxWaitMillis(MAX_WAIT_MILLIS);
 		config.setTestOnBorrow(true);
 		config.setTestOnReturn(true);
 		
@@ -49,6 +111,76 @@ public class JedisPool {
 		shardedJedisPool = new ShardedJedisPool(config, list);
 	}
 	
+	/**
+	 * 借用连接执行命令，执行结束后归还连接，执行期间计入执行中请求数
+	 * 连接异常(包括读超时)时连接上可能还有未读取的回复，作为损坏的连接归还，不再给其他请求使用
+	 * @param command
+	 * @param args
+	 * @return 命令的返回值
+	 */
+	public Object execute(ShardCommand command, Object[] args) throws Exception {
+		//信号量等待只挂起当前线程，虚拟线程等待时不占用平台线程
+		if (permits != null && !permits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+			throw new JedisConnectionException("Could not get a resource from the pool");
+		}
+		inFlight.incrementAndGet();
+		try {
+			ShardedJedis sj = shardedJedisPool.getResource();
+			boolean broken = false;
+			try {
+				return command.execute(sj, args);
+			} catch (JedisConnectionException e) {
+				broken = true;
+				throw e;
+			} finally {
+				returnResource(sj, broken);
+			}
+		} finally {
+			inFlight.decrementAndGet();
+			if (permits != null) {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * 通过INFO memory获取redis的maxmemory配置
+	 * @return maxmemory字节数，未设置或获取失败时返回0
+	 */
+	public long getMaxmemory() {
+		try {
+			Object maxmemory = execute(new ShardCommand() {
+				@Override
+				public Object execute(ShardedJedis sj, Object[] args) throws Exception {
+					Jedis jedis = sj.getAllShards().iterator().next();
+					for (String line : jedis.info("memory").split("\r\n")) {
+						if (line.startsWith("maxmemory:")) {
+							return Long.parseLong(line.substring("maxmemory:".length()).trim());
+						}
+					}
+					return 0L;
+				}
+			}, null);
+			return (Long) maxmemory;
+		} catch (Exception e) {
+			log.error("get maxmemory error", e);
+			return 0;
+		}
+	}
+
+	/**
+	 * 归还连接
+	 * @param sj
+	 * @param broken 发生连接异常时为true，连接直接关闭
+	 */
+	private void returnResource(ShardedJedis sj, boolean broken) {
+		if (broken) {
+			shardedJedisPool.returnBrokenResource(sj);
+		} else {
+			shardedJedisPool.returnResource(sj);
+		}
+	}
+	
 	/**
 	 * 销毁redis连接池
 	 */
@@ -0,0 +1,57 @@
+package com.redis.jedis;
+
+/**
+ * key在master之间的分布策略
+ * @author jiangchunzhi
+ *
+ */
+public enum PlacementStrategy {
+
+	/**
+	 * ketama一致性Hash环，每个master对应多个虚拟节点，支持权重
+	 */
+	KETAMA_RING,
+
+	/**
+	 * Jump Consistent Hash，不需要Hash环内存，分布均匀；
+	 * master按ShardedPoolConfig.jumpHashOrder编号，编号只能追加：新增master加在末尾时只迁移约1/n的key，
+	 * 中间的master离开会改变之后所有master的编号；未列出的master按名称排序编号在后，不支持权重
+	 * @see http://arxiv.org/abs/1406.2294
+	 */
+	JUMP_HASH,
+
+	/**
+	 * Rendezvous(HRW)最高随机权重Hash，不需要Hash环内存，任意增删master只迁移最少的key，
+	 * 查找开销与master个数成正比，不支持权重
+	 */
+	RENDEZVOUS;
+
+	/**
+	 * Jump Consistent Hash
+	 * @param key 64位key
+	 * @param buckets bucket个数
+	 * @return [0, buckets)之间的bucket下标
+	 */
+	public static int jump(long key, int buckets) {
+		long b = -1;
+		long j = 0;
+		while (j < buckets) {
+			b = j;
+			key = key * 2862933555777941757L + 1;
+			j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) b;
+	}
+
+	/**
+	 * 64位混淆函数(splitmix64的finalizer)，将32位hash值扩展为分布均匀的64位值
+	 * @param z
+	 * @return
+	 */
+	public static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,544 @@
+package com.redis.jedis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.redis.util.HashAlgorithm;
+
+/**
+ * 一致性Hash环的不可变快照
+ * 虚拟节点按hash值升序存放在long数组中，并行数组保存所属master及其连接池，
+ * 查找使用二分法，不装箱、不分配对象；拓扑变化时由ShardedPoolManager整体替换
+ * 使用JUMP_HASH或RENDEZVOUS策略时不构建Hash环，每个master对应一个节点
+ * @author jiangchunzhi
+ *
+ */
+public final class RingSnapshot {
+
+	private static final JedisPool[] NO_POOLS = new JedisPool[0];
+
+	private static final String[] NO_NAMES = new String[0];
+
+	//32位hash空间大小
+	private static final long HASH_SPACE = 1L << 32;
+
+	//虚拟节点hash值，升序
+	private final long[] points;
+
+	//虚拟节点所属master在masters中的下标
+	private final int[] owners;
+
+	//虚拟节点所属master的连接池
+	private final JedisPool[] pools;
+
+	//master name，按masterOrder编号，未列出的按名称排序在后
+	private final String[] masters;
+
+	//master对应的slave连接池
+	private final JedisPool[][] slavePools;
+
+	//master对应的slave名称(ip:port)
+	private final String[][] slaveNames;
+
+	//分布策略
+	private final PlacementStrategy strategy;
+
+	//每个master名称的md5值，用于rendezvous hash
+	private final long[] seeds;
+
+	//master的连接池，与masters下标一一对应
+	private final JedisPool[] masterPools;
+
+	//所有master和slave的连接池，用于统计总负载
+	private final JedisPool[] servers;
+
+	//槽位表，下标为hash值的高位，值为该槽位起点之后的第一个虚拟节点下标，未启用时为null
+	private final int[] slots;
+
+	//hash值右移位数，得到槽位下标
+	private final int slotShift;
+
+	//每个节点顺时针方向上其他master各自的第一个节点下标，按环上顺序排列，用于重Hash读时每个master只访问一次
+	private final int[][] successors;
+
+	//快照版本号，每次发布新快照时递增
+	private final long version;
+
+	public RingSnapshot(SortedMap<Long, String> buckets, Map<String, JedisPool> socketPool,
+			Map<String, List<String>> masterSlaveRef, int slotCount, PlacementStrategy strategy) {
+		this(buckets, socketPool, masterSlaveRef, slotCount, strategy, 0);
+	}
+
+	/**
+	 * 根据bucket和连接信息构建快照
+	 * @param buckets key为hash值，value为master name
+	 * @param socketPool 连接池
+	 * @param masterSlaveRef master和slave的对应关系
+	 * @param slotCount 槽位表大小，0表示不启用
+	 * @param strategy 分布策略，非KETAMA_RING时忽略buckets
+	 * @param version 快照版本号
+	 */
+	public RingSnapshot(SortedMap<Long, String> buckets, Map<String, JedisPool> socketPool,
+			Map<String, List<String>> masterSlaveRef, int slotCount, PlacementStrategy strategy, long version) {
+		this(buckets, socketPool, masterSlaveRef, slotCount, strategy, version, Collections.<String>emptyList());
+	}
+
+	/**
+	 * 根据bucket和连接信息构建快照
+	 * @param buckets key为hash值，value为master name
+	 * @param socketPool 连接池
+	 * @param masterSlaveRef master和slave的对应关系
+	 * @param slotCount 槽位表大小，0表示不启用
+	 * @param strategy 分布策略，非KETAMA_RING时忽略buckets
+	 * @param version 快照版本号
+	 * @param masterOrder master的编号顺序，JUMP_HASH按编号计算bucket；未列出的master按名称排序后排在最后
+	 */
+	public RingSnapshot(SortedMap<Long, String> buckets, Map<String, JedisPool> socketPool,
+			Map<String, List<String>> masterSlaveRef, int slotCount, PlacementStrategy strategy, long version,
+			List<String> masterOrder) {
+		this.version = version;
+		List<String> masterList = new ArrayList<String>();
+		for (String master : masterOrder) {
+			if (masterSlaveRef.containsKey(master)) {
+				masterList.add(master);
+			}
+		}
+		List<String> unlisted = new ArrayList<String>(masterSlaveRef.keySet());
+		unlisted.removeAll(masterList);
+		Collections.sort(unlisted);
+		masterList.addAll(unlisted);
+		this.masters = masterList.toArray(new String[masterList.size()]);
+
+		Map<String, Integer> masterIndex = new HashMap<String, Integer>();
+		this.slavePools = new JedisPool[this.masters.length][];
+		this.slaveNames = new String[this.masters.length][];
+		for (int i = 0; i < this.masters.length; i++) {
+			masterIndex.put(this.masters[i], i);
+			List<String> slaves = masterSlaveRef.get(this.masters[i]);
+			if (slaves == null || slaves.isEmpty()) {
+				this.slavePools[i] = NO_POOLS;
+				this.slaveNames[i] = NO_NAMES;
+				continue;
+			}
+			List<JedisPool> poolList = new ArrayList<JedisPool>(slaves.size());
+			List<String> nameList = new ArrayList<String>(slaves.size());
+			for (String slave : slaves) {
+				JedisPool jp = socketPool.get(slave);
+				//没有连接池的slave不参与读
+				if (jp != null) {
+					poolList.add(jp);
+					nameList.add(slave);
+				}
+			}
+			this.slavePools[i] = poolList.toArray(new JedisPool[poolList.size()]);
+			this.slaveNames[i] = nameList.toArray(new String[nameList.size()]);
+		}
+
+		this.strategy = strategy;
+		this.seeds = new long[this.masters.length];
+		for (int i = 0; i < this.masters.length; i++) {
+			byte[] d = HashAlgorithm.computeMd5(this.masters[i]);
+			for (int b = 0; b < 8; b++) {
+				this.seeds[i] = (this.seeds[i] << 8) | (d[b] & 0xFF);
+			}
+		}
+
+		if (strategy != PlacementStrategy.KETAMA_RING) {
+			//不使用Hash环时每个master对应一个节点，节点值为master下标
+			this.points = new long[this.masters.length];
+			this.owners = new int[this.masters.length];
+			this.pools = new JedisPool[this.masters.length];
+			for (int i = 0; i < this.masters.length; i++) {
+				this.points[i] = i;
+				this.owners[i] = i;
+				this.pools[i] = socketPool.get(this.masters[i]);
+			}
+		} else {
+			int size = 0;
+			this.points = new long[buckets.size()];
+			this.owners = new int[buckets.size()];
+			this.pools = new JedisPool[buckets.size()];
+			for (Map.Entry<Long, String> entry : buckets.entrySet()) {
+				Integer owner = masterIndex.get(entry.getValue());
+				if (owner == null) {
+					continue;
+				}
+				this.points[size] = entry.getKey();
+				this.owners[size] = owner;
+				this.pools[size] = socketPool.get(entry.getValue());
+				size++;
+			}
+			if (size != this.points.length) {
+				throw new IllegalArgumentException("buckets contain unknown master");
+			}
+		}
+
+		List<JedisPool> serverList = new ArrayList<JedisPool>();
+		this.masterPools = new JedisPool[this.masters.length];
+		for (int i = 0; i < this.masters.length; i++) {
+			JedisPool jp = socketPool.get(this.masters[i]);
+			this.masterPools[i] = jp;
+			if (jp != null) {
+				serverList.add(jp);
+			}
+			Collections.addAll(serverList, this.slavePools[i]);
+		}
+		this.servers = serverList.toArray(new JedisPool[serverList.size()]);
+
+		if (slotCount > 0 && strategy == PlacementStrategy.KETAMA_RING) {
+			this.slotShift = 32 - Integer.numberOfTrailingZeros(slotCount);
+			this.slots = populateSlots(slotCount);
+		} else {
+			this.slotShift = 0;
+			this.slots = null;
+		}
+		this.successors = populateSuccessors();
+	}
+
+	/**
+	 * 预先计算每个节点之后的不同master序列：沿环顺时针行走，记录每个新出现的master的第一个节点，
+	 * 不包含节点自身所属的master
+	 * @return
+	 */
+	private int[][] populateSuccessors() {
+		int n = this.points.length;
+		int[][] table = new int[n][];
+		int[] buf = new int[Math.max(0, this.masters.length - 1)];
+		boolean[] seen = new boolean[this.masters.length];
+		for (int i = 0; i < n; i++) {
+			int count = 0;
+			seen[this.owners[i]] = true;
+			for (int j = this.nextIndex(i); j != i && count < buf.length; j = this.nextIndex(j)) {
+				if (!seen[this.owners[j]]) {
+					seen[this.owners[j]] = true;
+					buf[count++] = j;
+				}
+			}
+			table[i] = new int[count];
+			System.arraycopy(buf, 0, table[i], 0, count);
+			Arrays.fill(seen, false);
+		}
+		return table;
+	}
+
+	/**
+	 * 预先计算每个槽位起点之后的第一个虚拟节点
+	 * @param slotCount
+	 * @return
+	 */
+	private int[] populateSlots(int slotCount) {
+		int[] table = new int[slotCount];
+		int p = 0;
+		for (int s = 0; s < slotCount; s++) {
+			long start = (long) s << this.slotShift;
+			while (p < this.points.length && this.points[p] < start) {
+				p++;
+			}
+			table[s] = p;
+		}
+		return table;
+	}
+
+	/**
+	 * 快照版本号，节点下标只在同一版本内有效
+	 * @return
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * 虚拟节点个数
+	 * @return
+	 */
+	public int size() {
+		return this.points.length;
+	}
+
+	/**
+	 * 按照分布策略查找hash值对应的节点下标
+	 * KETAMA_RING时为Hash环上的虚拟节点，其他策略时为master下标
+	 * @param hv
+	 * @return
+	 */
+	public int locate(long hv) {
+		int n = this.masters.length;
+		switch (this.strategy) {
+		case JUMP_HASH:
+			if (n == 0) {
+				throw new IllegalStateException("no master available");
+			}
+			return PlacementStrategy.jump(PlacementStrategy.mix64(hv), n);
+		case RENDEZVOUS: {
+			if (n == 0) {
+				throw new IllegalStateException("no master available");
+			}
+			int best = 0;
+			long bestScore = PlacementStrategy.mix64(hv ^ this.seeds[0]);
+			for (int i = 1; i < n; i++) {
+				long score = PlacementStrategy.mix64(hv ^ this.seeds[i]);
+				if (Long.compareUnsigned(score, bestScore) > 0) {
+					best = i;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+		default:
+			return this.indexFor(hv);
+		}
+	}
+
+	/**
+	 * 查找hash值对应的虚拟节点下标：第一个大于等于hv的节点，没有时按顺时针回到第一个
+	 * 启用槽位表时先按槽位定位，否则二分查找
+	 * @param hv
+	 * @return
+	 */
+	public int indexFor(long hv) {
+		int n = this.points.length;
+		if (n == 0) {
+			throw new IllegalStateException("consistent buckets is empty");
+		}
+		if (this.slots != null && (hv >>> 32) == 0) {
+			//槽位内通常没有或只有极少的虚拟节点，与二分查找结果完全一致
+			int i = this.slots[(int) (hv >>> this.slotShift)];
+			while (i < n && this.points[i] < hv) {
+				i++;
+			}
+			return i == n ? 0 : i;
+		}
+		int low = 0;
+		int high = n - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midVal = this.points[mid];
+			if (midVal < hv) {
+				low = mid + 1;
+			} else if (midVal > hv) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return low == n ? 0 : low;
+	}
+
+	/**
+	 * 顺时针方向的下一个虚拟节点下标
+	 * @param index
+	 * @return
+	 */
+	public int nextIndex(int index) {
+		int next = index + 1;
+		return next == this.points.length ? 0 : next;
+	}
+
+	/**
+	 * 顺时针方向上其他每个master的第一个节点下标，按环上顺序排列，每个master只出现一次
+	 * @param index
+	 * @return 返回共享数组，调用方不能修改
+	 */
+	public int[] getSuccessors(int index) {
+		return this.successors[index];
+	}
+
+	/**
+	 * 虚拟节点的hash值
+	 * @param index
+	 * @return
+	 */
+	public long getPoint(int index) {
+		return this.points[index];
+	}
+
+	/**
+	 * master个数
+	 * @return
+	 */
+	public int masterCount() {
+		return this.masters.length;
+	}
+
+	/**
+	 * master name，下标与getOwner的返回值对应
+	 * @param owner
+	 * @return
+	 */
+	public String getMasterName(int owner) {
+		return this.masters[owner];
+	}
+
+	/**
+	 * master的连接池
+	 * @param owner
+	 * @return
+	 */
+	public JedisPool getMasterPool(int owner) {
+		return this.masterPools[owner];
+	}
+
+	/**
+	 * 虚拟节点所属master的下标，范围为[0, masterCount())
+	 * @param index
+	 * @return
+	 */
+	public int getOwner(int index) {
+		return this.owners[index];
+	}
+
+	/**
+	 * 虚拟节点所属的master name
+	 * @param index
+	 * @return
+	 */
+	public String getMaster(int index) {
+		return this.masters[this.owners[index]];
+	}
+
+	/**
+	 * 虚拟节点所属master的连接池
+	 * @param index
+	 * @return
+	 */
+	public JedisPool getPool(int index) {
+		return this.pools[index];
+	}
+
+	/**
+	 * 虚拟节点所属master的slave连接池，没有slave时返回空数组
+	 * @param index
+	 * @return
+	 */
+	public JedisPool[] getSlavePools(int index) {
+		return this.slavePools[this.owners[index]];
+	}
+
+	/**
+	 * 虚拟节点所属master的slave名称，与getSlavePools下标一一对应
+	 * @param index
+	 * @return
+	 */
+	public String[] getSlaveNames(int index) {
+		return this.slaveNames[this.owners[index]];
+	}
+
+	/**
+	 * 有界负载下每台redis允许的最大执行中请求数：ceil(loadFactor * (总请求数 + 1) / redis个数)
+	 * @param loadFactor
+	 * @return
+	 */
+	public int capacity(double loadFactor) {
+		if (this.servers.length == 0) {
+			return Integer.MAX_VALUE;
+		}
+		long total = 0;
+		for (JedisPool jp : this.servers) {
+			total += jp.getInFlight();
+		}
+		return (int) Math.ceil(loadFactor * (total + 1) / this.servers.length);
+	}
+
+	/**
+	 * 虚拟节点所属master及其slave中执行中请求数最少的连接池
+	 * @param index
+	 * @return
+	 */
+	public JedisPool leastLoaded(int index) {
+		JedisPool ret = this.pools[index];
+		for (JedisPool jp : this.slavePools[this.owners[index]]) {
+			if (jp.getInFlight() < ret.getInFlight()) {
+				ret = jp;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 顺时针方向第一个属于其他master、且该master或其slave未超过容量的虚拟节点下标
+	 * @param index
+	 * @param capacity
+	 * @return 没有符合条件的节点时返回-1
+	 */
+	public int spillIndex(int index, int capacity) {
+		int owner = this.owners[index];
+		for (int i = this.nextIndex(index); i != index; i = this.nextIndex(i)) {
+			if (this.owners[i] != owner && this.leastLoaded(i).getInFlight() < capacity) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 统计每个master在32位hash空间中所占的百分比，
+	 * 每个虚拟节点拥有从上一个节点(不含)到自身(含)的区间
+	 * @return key为master name，value为百分比
+	 */
+	public Map<String, Double> getOwnership() {
+		Map<String, Double> ret = new TreeMap<String, Double>();
+		if (this.points.length == 0) {
+			return ret;
+		}
+		if (this.strategy != PlacementStrategy.KETAMA_RING) {
+			//不使用Hash环时按master均分
+			for (String master : this.masters) {
+				ret.put(master, 100.0 / this.masters.length);
+			}
+			return ret;
+		}
+		long[] owned = new long[this.masters.length];
+		int last = this.points.length - 1;
+		//第一个节点还拥有最后一个节点之后回绕的区间
+		owned[this.owners[0]] += this.points[0] + (HASH_SPACE - this.points[last]);
+		for (int i = 1; i < this.points.length; i++) {
+			owned[this.owners[i]] += this.points[i] - this.points[i - 1];
+		}
+		for (int i = 0; i < this.masters.length; i++) {
+			ret.put(this.masters[i], owned[i] * 100.0 / HASH_SPACE);
+		}
+		return ret;
+	}
+
+	/**
+	 * 按ketama方式为master生成虚拟节点，每次md5计算产生4个节点
+	 * @param consistentBuckets key为hash值，value为master name
+	 * @param master
+	 * @param nodes 虚拟节点个数
+	 */
+	public static void populateVirtualNodes(SortedMap<Long, String> consistentBuckets, String master, int nodes) {
+		for (int j=0; j * 4 < nodes; j++) {
+			//计算server的md5值,返回字节数据长度为16
+			byte[] d = HashAlgorithm.computeMd5((master + "-" + j));
+			for (int h=0; h<4 && j * 4 + h < nodes; h++) {
+				//每次提取出4个字节，组成Long类型
+				Long k = ((long) (d[3 + h * 4] & 0xFF) << 24)
+						| ((long) (d[2 + h * 4] & 0xFF) << 16)
+						| ((long) (d[1 + h * 4] & 0xFF) << 8)
+						| ((long) (d[0 + h * 4] & 0xFF));
+
+				//一致性buckets中存放计算出的long值，注意：可能存在重复的情况
+				consistentBuckets.put(k, master);
+			}
+		}
+	}
+
+	/**
+	 * 转换为有序map，仅用于展示和调试
+	 * @return
+	 */
+	public SortedMap<Long, String> toSortedMap() {
+		TreeMap<Long, String> map = new TreeMap<Long, String>();
+		for (int i = 0; i < this.points.length; i++) {
+			map.put(this.points[i], this.getMaster(i));
+		}
+		return map;
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.redis.jedis;
+
+import redis.clients.jedis.ShardedJedis;
+
+/**
+ * 在单个redis上执行的命令，连接由JedisPool借用后显式传入，执行结束后立即归还，
+ * 命令中不能保存连接的引用
+ * @author jiangchunzhi
+ *
+ */
+public interface ShardCommand {
+
+	/**
+	 * @param jedis 本次执行借用的连接
+	 * @param args 命令参数
+	 * @return
+	 */
+	public Object execute(ShardedJedis jedis, Object[] args) throws Exception;
+
+}
@@ -0,0 +1,154 @@
+package com.redis.jedis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import com.redis.util.HashAlgorithm;
+
+/**
+ * 分片连接池路由配置
+ * @author jiangchunzhi
+ *
+ */
+public class ShardedPoolConfig {
+
+	//槽位表大小，0表示不启用槽位表，直接在Hash环上二分查找
+	private int slotCount = 0;
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * 设置槽位表大小，必须为2的幂，例如16384或65536，0表示不启用
+	 * 启用后32位KETAMA hash空间被均分为slotCount个槽位，每个槽位在构建Hash环时预先定位到虚拟节点
+	 * @param slotCount
+	 */
+	public void setSlotCount(int slotCount) {
+		if (slotCount < 0 || slotCount > (1 << 24) || (slotCount & (slotCount - 1)) != 0) {
+			throw new IllegalArgumentException("slotCount must be 0 or a power of two not greater than 2^24");
+		}
+		this.slotCount = slotCount;
+	}
+
+	//每个权重为1的master对应的虚拟节点个数，每次md5计算产生4个节点
+	private int virtualNodes = 32;
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public void setVirtualNodes(int virtualNodes) {
+		if (virtualNodes <= 0) {
+			throw new IllegalArgumentException("virtualNodes must be positive");
+		}
+		this.virtualNodes = virtualNodes;
+	}
+
+	//master name和权重的映射，虚拟节点个数 = virtualNodes * 权重，未配置的master权重为1
+	private Map<String, Double> weights = new HashMap<String, Double>();
+
+	public Map<String, Double> getWeights() {
+		return weights;
+	}
+
+	public void setWeights(Map<String, Double> weights) {
+		this.weights = weights;
+	}
+
+	//未在weights中配置的master，是否按照INFO返回的maxmemory计算权重，权重为maxmemory与各master平均值之比
+	private boolean weightByMaxmemory = false;
+
+	public boolean isWeightByMaxmemory() {
+		return weightByMaxmemory;
+	}
+
+	public void setWeightByMaxmemory(boolean weightByMaxmemory) {
+		this.weightByMaxmemory = weightByMaxmemory;
+	}
+
+	//有界负载因子，大于1时启用：读请求的目标redis执行中请求数超过平均值的loadFactor倍时转移到其他副本，0表示不启用
+	private double boundedLoadFactor = 0;
+
+	public double getBoundedLoadFactor() {
+		return boundedLoadFactor;
+	}
+
+	public void setBoundedLoadFactor(double boundedLoadFactor) {
+		if (boundedLoadFactor != 0 && boundedLoadFactor < 1) {
+			throw new IllegalArgumentException("boundedLoadFactor must be 0 or not less than 1");
+		}
+		this.boundedLoadFactor = boundedLoadFactor;
+	}
+
+	//是否启用hash tag路由，启用后key中{tag}部分相同的key路由到同一个master
+	private boolean hashTagEnabled = false;
+
+	public boolean isHashTagEnabled() {
+		return hashTagEnabled;
+	}
+
+	public void setHashTagEnabled(boolean hashTagEnabled) {
+		this.hashTagEnabled = hashTagEnabled;
+	}
+
+	//key在master之间的分布策略，默认为ketama一致性Hash环
+	private PlacementStrategy placementStrategy = PlacementStrategy.KETAMA_RING;
+
+	public PlacementStrategy getPlacementStrategy() {
+		return placementStrategy;
+	}
+
+	public void setPlacementStrategy(PlacementStrategy placementStrategy) {
+		this.placementStrategy = placementStrategy;
+	}
+
+	//JUMP_HASH的master编号顺序，第i个master的bucket编号为i；编号只能追加：新增master加在末尾，
+	//已有master不能调整顺序或删除，否则之后所有master的编号都会变化，迁移的key远多于1/n
+	//未列出的master按名称排序后编号在列出的master之后；所有客户端必须使用相同的配置
+	private List<String> jumpHashOrder = new ArrayList<String>();
+
+	public List<String> getJumpHashOrder() {
+		return jumpHashOrder;
+	}
+
+	public void setJumpHashOrder(List<String> jumpHashOrder) {
+		if (jumpHashOrder == null) {
+			throw new IllegalArgumentException("jumpHashOrder must not be null");
+		}
+		if (new HashSet<String>(jumpHashOrder).size() != jumpHashOrder.size()) {
+			throw new IllegalArgumentException("jumpHashOrder must not contain duplicate masters");
+		}
+		this.jumpHashOrder = jumpHashOrder;
+	}
+
+	//key的hash算法，默认KETAMA_HASH(md5)；MURMUR3_32_HASH和XXHASH_32更快，
+	//更换算法会改变key的分布，同一集群的所有客户端必须一致，低位不足32位的算法(如CRC32_HASH)不适合路由
+	private HashAlgorithm hashAlgorithm = HashAlgorithm.KETAMA_HASH;
+
+	public HashAlgorithm getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+
+	public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+		this.hashAlgorithm = hashAlgorithm;
+	}
+
+	//每台redis同时执行的最大请求数，大于0时使用信号量限制借用连接，适合虚拟线程，0表示由连接池阻塞等待
+	private int maxConcurrency = 0;
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency < 0) {
+			throw new IllegalArgumentException("maxConcurrency must not be negative");
+		}
+		this.maxConcurrency = maxConcurrency;
+	}
+
+}
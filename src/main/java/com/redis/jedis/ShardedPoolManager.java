@@ -1,20 +1,30 @@
 package com.redis.jedis;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
 import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.util.SafeEncoder;
 
 import com.redis.sentinels.Sentinel;
 import com.redis.sentinels.SentinelHeartKeeper;
+import com.redis.util.CacheKeyUtil;
 import com.redis.util.HashAlgorithm;
 
 /**
@@ -26,11 +36,22 @@ public class ShardedPoolManager {
 	
 	private static final Logger log = Logger.getLogger(ShardedPoolManager.class);
 
-	//key为hash值，value为master name
-	private TreeMap<Long, String> consistentBuckets;
+	//路由快照，拓扑变化时整体替换，读线程无需加锁
+	private volatile RingSnapshot ring;
 
-	public TreeMap<Long, String> getConsistentBuckets() {
-		return consistentBuckets;
+	//已发布的快照个数，作为下一个快照的版本号
+	private long ringVersion = 0;
+
+	public RingSnapshot getRing() {
+		return ring;
+	}
+
+	/**
+	 * key为hash值，value为master name，由当前快照生成，仅用于展示
+	 * @return
+	 */
+	public SortedMap<Long, String> getConsistentBuckets() {
+		return ring.toSortedMap();
 	}
 
 	//slave以ip:port为key,master以master name为key，Jedis连接池为value
@@ -42,6 +63,9 @@ public class ShardedPoolManager {
 
 	boolean initialized = false;
 
+	//sentinel监控，多次初始化时只启动一次
+	private SentinelHeartKeeper keeper;
+
 	private List<String> sentinelConfigList;
 	
 	public List<String> getSentinelConfigList() {
@@ -62,6 +86,36 @@ public class ShardedPoolManager {
 		return masterNameServerRef;
 	}
 
+	//拓扑变化监听
+	private final List<TopologyListener> listeners = new CopyOnWriteArrayList<TopologyListener>();
+
+	public void addTopologyListener(TopologyListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeTopologyListener(TopologyListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	//退役的连接池至少保留的时间、检查执行中请求数的间隔以及最长等待时间(毫秒)
+	private static final long RETIRE_GRACE_MILLIS = 1000;
+
+	private static final long RETIRE_CHECK_MILLIS = 200;
+
+	private static final long RETIRE_MAX_MILLIS = 30000;
+
+	//等待销毁的连接池，第一次有连接池退役时创建销毁线程
+	private final Set<JedisPool> retiring = Collections.newSetFromMap(new ConcurrentHashMap<JedisPool, Boolean>());
+
+	private ScheduledExecutorService retirer;
+
+	//路由配置
+	private ShardedPoolConfig config;
+
+	public ShardedPoolConfig getConfig() {
+		return config;
+	}
+
 	/**
 	 * 构造方法，赋值
 	 * @param confList
@@ -69,33 +123,160 @@ public class ShardedPoolManager {
 	 * @param hashingAlg
 	 */
 	public ShardedPoolManager(List<String> sentinelConfigList) {
+		this(sentinelConfigList, new ShardedPoolConfig());
+	}
+
+	/**
+	 * 构造方法，赋值
+	 * @param sentinelConfigList
+	 * @param config 路由配置
+	 */
+	public ShardedPoolManager(List<String> sentinelConfigList, ShardedPoolConfig config) {
 		this.sentinelConfigList = sentinelConfigList;
+		this.config = config;
 		log.info("++++++++ sentinelConfigList : " + sentinelConfigList);
 	}
 
 	/**
 	 * 初始化分片redis连接池Manager
 	 */
-	public void initialize() {
+	public synchronized void initialize() {
 		//获取sentinel client,连接时首先使用第一个配置项
-		String[] serverPort = this.sentinelConfigList.get(0).split(",")[0].split(":");
-		Sentinel sentinel = new Sentinel(serverPort[0], Integer.parseInt(serverPort[1]));
+		Sentinel sentinel = this.openSentinel();
+		
+		//通过sentinel获取所有master和slave的对应信息
+		Map<String, List<String>> masterSlaveRef = new ConcurrentHashMap<String, List<String>>();
+		Map<String, String> masterNameServerRef = new ConcurrentHashMap<String, String>();
+		loadTopology(sentinel, masterSlaveRef, masterNameServerRef);
+		sentinel.close();
+		
+		//对每一个redis服务建立连接池
+		Map<String, JedisPool> socketPool = connectAllRedis(masterSlaveRef, masterNameServerRef);
+		
+		//整理一致性Hash的bucket，权重可能需要通过master的INFO获取，所以在建立连接之后进行
+		TreeMap<Long, String> buckets = new TreeMap<Long, String>();
+		Map<String, Double> weights = resolveWeights(masterSlaveRef.keySet(), socketPool);
+		for (String master : masterSlaveRef.keySet()) {
+			populateConsistentBuckets(buckets, master, weights.get(master));
+		}
+		log.info("+++ consistentBuckets.size : " + buckets.size());
+		
+		//先在局部变量中构建完整的快照，再整体发布，读线程不会看到构建一半的环
+		Map<String, JedisPool> oriSocketPool = this.socketPool;
+		RingSnapshot previous = this.ring;
+		publish(buckets, socketPool, masterSlaveRef, masterNameServerRef);
+		//重复初始化时销毁旧的连接池
+		if (oriSocketPool != null) {
+			retirePools(oriSocketPool, socketPool);
+			fireRingChanged(previous, this.ring);
+		}
+		
+		//启动sentinel监控，只启动一次
+		if (this.keeper == null) {
+			startSentinel();
+		}
 		
-		//通过sentinel获取所有master信息
+		//设置初始化标记
+		this.initialized = true;
+	}
+
+	/**
+	 * 增量更新拓扑：只插入或删除增减master的虚拟节点，保留未变化redis的连接池，
+	 * 只销毁已经离开的redis(包括故障转移后的旧master)的连接池，避免整个客户端集群重新建立连接
+	 * @param sentinel
+	 */
+	public synchronized void refresh(Sentinel sentinel) {
+		Map<String, List<String>> masterSlaveRef = new ConcurrentHashMap<String, List<String>>();
+		Map<String, String> masterNameServerRef = new ConcurrentHashMap<String, String>();
+		loadTopology(sentinel, masterSlaveRef, masterNameServerRef);
+		//拓扑没有变化
+		if (masterSlaveRef.equals(this.masterSlaveRef) && masterNameServerRef.equals(this.masterNameServerRef)) {
+			return;
+		}
+		
+		//复用未变化的连接池，只为新的redis建立连接
+		Map<String, JedisPool> socketPool = new ConcurrentHashMap<String, JedisPool>();
+		for (Entry<String, List<String>> entry : masterSlaveRef.entrySet()) {
+			String master = entry.getKey();
+			String masterIpPort = masterNameServerRef.get(master);
+			JedisPool jpm = this.socketPool.get(master);
+			//master的ip:port变化说明发生了故障转移，需要连接新的master
+			if (jpm == null || !masterIpPort.equals(this.masterNameServerRef.get(master))) {
+				log.info("master [" + master + "] connect to " + masterIpPort);
+				jpm = new JedisPool(masterIpPort, this.config.getMaxConcurrency());
+			}
+			socketPool.put(master, jpm);
+			for (String slave : entry.getValue()) {
+				JedisPool jps = this.socketPool.get(slave);
+				socketPool.put(slave, jps != null ? jps : new JedisPool(slave, this.config.getMaxConcurrency()));
+			}
+		}
+		
+		//在当前Hash环上删除离开的master的虚拟节点，插入新增master的虚拟节点
+		TreeMap<Long, String> buckets = new TreeMap<Long, String>(this.ring.toSortedMap());
+		Iterator<Entry<Long, String>> it = buckets.entrySet().iterator();
+		while (it.hasNext()) {
+			String master = it.next().getValue();
+			if (!masterSlaveRef.containsKey(master)) {
+				it.remove();
+			}
+		}
+		//新增master的权重相对于当前所有master计算，原有master的虚拟节点保持不变
+		Map<String, Double> weights = null;
+		for (String master : masterSlaveRef.keySet()) {
+			if (!this.masterSlaveRef.containsKey(master)) {
+				if (weights == null) {
+					weights = resolveWeights(masterSlaveRef.keySet(), socketPool);
+				}
+				populateConsistentBuckets(buckets, master, weights.get(master));
+			}
+		}
+		
+		Map<String, JedisPool> oriSocketPool = this.socketPool;
+		RingSnapshot previous = this.ring;
+		boolean mastersChanged = !masterSlaveRef.keySet().equals(this.masterSlaveRef.keySet());
+		publish(buckets, socketPool, masterSlaveRef, masterNameServerRef);
+		//新快照发布之后才销毁旧连接池
+		retirePools(oriSocketPool, socketPool);
+		log.info("topology refreshed, masters=" + masterNameServerRef + ", slaves=" + masterSlaveRef);
+		//只有master增减时key的分布才会变化
+		if (mastersChanged) {
+			fireRingChanged(previous, this.ring);
+		}
+	}
+
+	/**
+	 * 通知拓扑变化监听，单个监听的异常不影响其他监听
+	 */
+	private void fireRingChanged(RingSnapshot previous, RingSnapshot current) {
+		for (TopologyListener listener : this.listeners) {
+			try {
+				listener.ringChanged(previous, current);
+			} catch (Exception e) {
+				log.error("topology listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * 通过sentinel获取所有master信息和存活的slave信息
+	 * @param sentinel
+	 * @param masterSlaveRef
+	 * @param masterNameServerRef
+	 */
+	private void loadTopology(Sentinel sentinel, Map<String, List<String>> masterSlaveRef,
+			Map<String, String> masterNameServerRef) {
 		List<Map<String, String>> masterList = sentinel.getAllMasters();
-		this.masterSlaveRef = new HashMap<String, List<String>>();
-		this.masterNameServerRef = new HashMap<String, String>();
 		//保存所有master和slave的对应信息
 		for(Map<String, String> master : masterList) {
 			String masterName = master.get("name");
 			String ipPort = master.get("ip") + ":" + master.get("port");
 			//存储映射信息
-			this.masterNameServerRef.put(masterName, ipPort);
+			masterNameServerRef.put(masterName, ipPort);
 			
 			List<String> slaveRef = new ArrayList<String>();
 			//保存对应关系,key=ip:port
-			this.masterSlaveRef.put(masterName, slaveRef);
-			
+			masterSlaveRef.put(masterName, slaveRef);
 			
 			List<Map<String, String>> slaveList = sentinel.getSlavesAlive(masterName);
 			for(Map<String, String> slave : slaveList) {
@@ -104,78 +285,190 @@ public class ShardedPoolManager {
 				slaveRef.add(slaveName);
 			}
 		}
-		
-		//整理一致性Hash的bucket
-		populateConsistentBuckets();
-		
-		//对每一个redis服务建立连接池
-		connectAllRedis();
-		
-		//启动sentinel监控
-		startSentinel();
-		
-		//设置初始化标记
-		this.initialized = true;
+	}
+
+	/**
+	 * JUMP_HASH的编号只能追加，jumpHashOrder中间的master离开或有未列出的master时，之后的编号会变化
+	 */
+	private void checkJumpHashOrder(Set<String> masters) {
+		List<String> order = this.config.getJumpHashOrder();
+		boolean gap = false;
+		for (int i = order.size() - 1; i >= 0; i--) {
+			if (masters.contains(order.get(i))) {
+				gap = true;
+			} else if (gap) {
+				log.warn("jump hash master [" + order.get(i) + "] is absent, ordinals of later masters shift");
+			}
+		}
+		for (String master : masters) {
+			if (!order.contains(master)) {
+				log.warn("master [" + master + "] is not in jumpHashOrder, ordinal assigned by name may shift");
+			}
+		}
+	}
+
+	/**
+	 * 构建并发布新的路由快照
+	 */
+	private void publish(TreeMap<Long, String> buckets, Map<String, JedisPool> socketPool,
+			Map<String, List<String>> masterSlaveRef, Map<String, String> masterNameServerRef) {
+		if (this.config.getPlacementStrategy() == PlacementStrategy.JUMP_HASH) {
+			checkJumpHashOrder(masterSlaveRef.keySet());
+		}
+		RingSnapshot snapshot = new RingSnapshot(buckets, socketPool, masterSlaveRef, this.config.getSlotCount(),
+				this.config.getPlacementStrategy(), ++this.ringVersion, this.config.getJumpHashOrder());
+		this.masterSlaveRef = masterSlaveRef;
+		this.masterNameServerRef = masterNameServerRef;
+		this.socketPool = socketPool;
+		this.ring = snapshot;
+		log.info("+++ ownership(%) : " + snapshot.getOwnership());
+	}
+
+	/**
+	 * 延迟销毁不再使用的连接池：发布新快照后，仍持有旧快照的请求可能正在或即将使用旧的连接池，
+	 * 所以至少等待RETIRE_GRACE_MILLIS，并且等到执行中的请求数为0后再销毁，最多等待RETIRE_MAX_MILLIS
+	 * @param oriSocketPool 旧的连接池
+	 * @param socketPool 新的连接池
+	 */
+	private void retirePools(Map<String, JedisPool> oriSocketPool, Map<String, JedisPool> socketPool) {
+		for (Entry<String, JedisPool> entry : oriSocketPool.entrySet()) {
+			if (socketPool.get(entry.getKey()) != entry.getValue()) {
+				log.info("retire redis pool [" + entry.getKey() + "]");
+				this.scheduleRetire(entry.getKey(), entry.getValue(), System.currentTimeMillis(), RETIRE_GRACE_MILLIS);
+			}
+		}
+	}
+
+	private void scheduleRetire(final String name, final JedisPool pool, final long retiredAt, long delay) {
+		if (this.retirer == null) {
+			this.retirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "redis-pool-retirer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		this.retiring.add(pool);
+		final ScheduledExecutorService executor = this.retirer;
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (pool.getInFlight() > 0 && System.currentTimeMillis() - retiredAt < RETIRE_MAX_MILLIS) {
+					//仍有请求在使用，稍后再检查
+					executor.schedule(this, RETIRE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					return;
+				}
+				if (pool.getInFlight() > 0) {
+					log.warn("destroy redis pool [" + name + "] with " + pool.getInFlight() + " requests in flight");
+				}
+				if (retiring.remove(pool)) {
+					pool.destory();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 获取sentinel client,连接时首先使用第一个配置项
+	 * @return
+	 */
+	public Sentinel openSentinel() {
+		String[] serverPort = this.sentinelConfigList.get(0).split(",")[0].split(":");
+		return new Sentinel(serverPort[0], Integer.parseInt(serverPort[1]));
 	}
 
 	/**
 	 * 启动sentinel监控
 	 */
 	private void startSentinel() {
-		SentinelHeartKeeper keeper = new SentinelHeartKeeper(this);
-		keeper.start();
+		this.keeper = new SentinelHeartKeeper(this);
+		this.keeper.start();
 	}
 
 	/**
 	 * 连接所有的Redis服务,并保存连接池信息
 	 */
-	private void connectAllRedis() {
-		socketPool = new HashMap<String, JedisPool>();
-		Set<Entry<String, List<String>>> redisEntry = this.masterSlaveRef.entrySet();
+	private Map<String, JedisPool> connectAllRedis(Map<String, List<String>> masterSlaveRef,
+			Map<String, String> masterNameServerRef) {
+		Map<String, JedisPool> socketPool = new ConcurrentHashMap<String, JedisPool>();
+		Set<Entry<String, List<String>>> redisEntry = masterSlaveRef.entrySet();
 		for(Entry<String, List<String>> entry : redisEntry) {
 			//建立并保存master的连接信息
 			String master = entry.getKey();
-			String masterIpPort = this.masterNameServerRef.get(master);
-			JedisPool jpm = new JedisPool(masterIpPort);
-			this.socketPool.put(master, jpm);
+			String masterIpPort = masterNameServerRef.get(master);
+			JedisPool jpm = new JedisPool(masterIpPort, this.config.getMaxConcurrency());
+			socketPool.put(master, jpm);
 			
 			//建立并保存slave的连接信息
 			for(String slave : entry.getValue()) {
-				JedisPool jps = new JedisPool(slave);
-				this.socketPool.put(slave, jps);
+				JedisPool jps = new JedisPool(slave, this.config.getMaxConcurrency());
+				socketPool.put(slave, jps);
 			}
 		}
+		return socketPool;
 	}
 
 	/**
-	 * 采用一致性Hash收集buckets,只针对master进行收集
+	 * 计算所有master的权重：优先使用配置的权重，其次按maxmemory相对于各master平均值的比例计算，默认为1
+	 * maxmemory未知的master使用平均权重1，所以权重只反映master之间的相对大小，与内存的绝对数值无关
+	 * @param masters
+	 * @param socketPool master的连接池
+	 * @return key为master name，value为权重
 	 */
-	private void populateConsistentBuckets() {
-		consistentBuckets = new TreeMap<Long, String>();
-		Set<String> masterSet = this.masterSlaveRef.keySet();
-		
-		for (String master : masterSet) {
-			//每一个redis master实例暂定为32个对应的虚拟节点
-			for (int j=0; j<8; j++) {
-				//计算server的md5值,返回字节数据长度为16
-				byte[] d = HashAlgorithm.computeMd5((master + "-" + j));
-				for (int h=0; h<4; h++) {
-					//每次提取出4个字节，组成Long类型
-					Long k = ((long) (d[3 + h * 4] & 0xFF) << 24)
-							| ((long) (d[2 + h * 4] & 0xFF) << 16)
-							| ((long) (d[1 + h * 4] & 0xFF) << 8)
-							| ((long) (d[0 + h * 4] & 0xFF));
-
-					//一致性buckets中存放计算出的long值，注意：可能存在重复的情况
-					//总数不超过master个数 * 8 * 4
-					consistentBuckets.put(k, master);
+	private Map<String, Double> resolveWeights(Set<String> masters, Map<String, JedisPool> socketPool) {
+		Map<String, Double> weights = new HashMap<String, Double>();
+		Map<String, Long> maxmemories = new HashMap<String, Long>();
+		long total = 0;
+		for (String master : masters) {
+			Double weight = this.config.getWeights().get(master);
+			if (weight != null) {
+				weights.put(master, weight);
+				continue;
+			}
+			JedisPool pool = socketPool.get(master);
+			long maxmemory = this.config.isWeightByMaxmemory() && pool != null ? pool.getMaxmemory() : 0;
+			if (maxmemory > 0) {
+				maxmemories.put(master, maxmemory);
+				total += maxmemory;
+			} else {
+				if (this.config.isWeightByMaxmemory()) {
+					//未设置maxmemory或获取失败时使用平均权重
+					log.warn("master [" + master + "] maxmemory unknown, use mean weight 1");
 				}
+				weights.put(master, 1d);
+			}
+		}
+		if (!maxmemories.isEmpty()) {
+			double mean = (double) total / maxmemories.size();
+			for (Entry<String, Long> entry : maxmemories.entrySet()) {
+				weights.put(entry.getKey(), entry.getValue() / mean);
 			}
-
-			log.info("master [" + master + "] populate consistent buckets success");
 		}
-		log.info("+++consistentBuckets=" + consistentBuckets.toString());
-		log.info("+++ consistentBuckets.size : " + consistentBuckets.size());
+		return weights;
+	}
+
+	/**
+	 * 采用一致性Hash收集buckets,只针对master进行收集
+	 * @param consistentBuckets
+	 * @param master
+	 * @param weight 虚拟节点个数为virtualNodes * weight，至少为1
+	 */
+	private void populateConsistentBuckets(TreeMap<Long, String> consistentBuckets, String master, double weight) {
+		//每一个redis master实例默认为32个对应的虚拟节点，总数不超过 master个数 * virtualNodes * weight
+		int nodes = (int) Math.max(1, Math.round(this.config.getVirtualNodes() * weight));
+		RingSnapshot.populateVirtualNodes(consistentBuckets, master, nodes);
+
+		log.info("master [" + master + "] populate " + nodes + " consistent buckets success, weight=" + weight);
+	}
+
+	/**
+	 * 当前Hash环中每个master所占hash空间的百分比，用于评估各master的内存和CPU负载是否均衡
+	 * @return key为master name，value为百分比
+	 */
+	public Map<String, Double> getOwnershipReport() {
+		return this.ring.getOwnership();
 	}
 
 	/**
@@ -189,13 +482,12 @@ public class ShardedPoolManager {
 			return null;
 		}
 
-		//通过Hash算法计算key所对应的bucket
-		long bucket = getBucket(key);
-		//获取根据bucket获取server信息
-		String server = this.consistentBuckets.get(bucket);
-		log.info("bucket=" + bucket + ", server=" + server);
+		//通过Hash算法计算key所对应的虚拟节点
+		RingSnapshot snapshot = this.ring;
+		int index = snapshot.locate(getHash(key));
+		JedisPool jedisPool = snapshot.getPool(index);
+		log.info("bucket=" + snapshot.getPoint(index) + ", server=" + snapshot.getMaster(index));
 		
-		JedisPool jedisPool = socketPool.get(server);
 		if (jedisPool != null) {
 			return jedisPool.getShardedJedisPool();
 		}
@@ -209,9 +501,9 @@ public class ShardedPoolManager {
 	 * @return
 	 */
 	public final long getBucket(String key) {
-		long hc = getHash(key);
+		RingSnapshot snapshot = this.ring;
 		//根据一致性Hash算法计算bucket位置
-		return findPointFor(hc);
+		return snapshot.getPoint(snapshot.locate(getHash(key)));
 	}
 	
 	/**
@@ -221,73 +513,64 @@ public class ShardedPoolManager {
 	 * @return
 	 */
 	public final long getNextBucket(long currentBucket) {
-		return findNextPointFor(currentBucket);
-	}
-
-	private long findNextPointFor(long currentBucket) {
-		//获取大于等于hv的所有元素的映射map
-		SortedMap<Long, String> tmap = this.consistentBuckets.tailMap(currentBucket);
-		//如果没有取到值，说明这个值最大，最后一个bucket不能存放，按照顺时针顺序，放到第一个。
-		//如果取到值，获取返回的map的第一个key，
-		long currentPoint = (tmap.isEmpty()) ? this.consistentBuckets.firstKey() : tmap.firstKey();
-		
-		//设置false表示不包含相等的节点
-		tmap = this.consistentBuckets.tailMap(currentPoint, false);
-		long nextPoint = (tmap.isEmpty()) ? this.consistentBuckets.firstKey() : tmap.firstKey();
-		return nextPoint;
-	}
-	
-	public static void main(String[] args) {
-		TreeMap<Long, String> consistentBuckets = new TreeMap<Long, String>();
-		consistentBuckets.put(1L, "1");
-		consistentBuckets.put(11L, "11");
-		consistentBuckets.put(111L, "111");
-		consistentBuckets.put(1111L, "1111");
-		consistentBuckets.put(11111L, "11111");
-		consistentBuckets.put(111111L, "111111");
-		long currentBucket = 10;
-		//获取大于等于hv的所有元素的映射map
-		SortedMap<Long, String> tmap = consistentBuckets.tailMap(currentBucket);
-		//如果没有取到值，说明这个值最大，最后一个bucket不能存放，按照顺时针顺序，放到第一个。
-		//如果取到值，获取返回的map的第一个key，
-		long currentPoint = (tmap.isEmpty()) ? consistentBuckets.firstKey() : tmap.firstKey();
-		System.out.println("curr=" + currentPoint);
-		
-		tmap = consistentBuckets.tailMap(currentPoint, false);
-		long nextPoint = (tmap.isEmpty()) ? consistentBuckets.firstKey() : tmap.firstKey();
-		System.out.println("next=" + nextPoint);
+		RingSnapshot snapshot = this.ring;
+		//先定位大于等于currentBucket的节点，再取其顺时针方向的下一个节点
+		return snapshot.getPoint(snapshot.nextIndex(snapshot.indexFor(currentBucket)));
 	}
 
 	/**
-	 * 获取指定key的hash值
+	 * 获取指定key的hash值，启用hash tag时只计算{tag}部分
 	 * @param key
-	 * @param hashCode
 	 * @return
 	 */
-	private long getHash(String key) {
-		return HashAlgorithm.KETAMA_HASH.hash(key);
+	public long getHash(String key) {
+		HashAlgorithm alg = this.config.getHashAlgorithm();
+		//直接按下标计算，不截取字符串、不编码成新的数组
+		if (this.config.isHashTagEnabled()) {
+			return alg.hash(key, CacheKeyUtil.hashTagStart(key), CacheKeyUtil.hashTagEnd(key)) & 0xffffffffL;
+		}
+		return alg.hash(key, 0, key.length()) & 0xffffffffL;
 	}
 
 	/**
-	 * 一致性Hash的情况，查找bucket下标（一致性Hash的查找算法实现）
-	 * @param hv
+	 * 获取UTF-8编码的key的hash值，结果与getHash(String)一致
+	 * @param key
 	 * @return
 	 */
-	private Long findPointFor(Long hv) {
-		//获取大于等于hv的所有元素的映射map
-		SortedMap<Long, String> tmap = this.consistentBuckets.tailMap(hv);
-		//如果没有取到值，说明这个值最大，最后一个bucket不能存放，按照顺时针顺序，放到第一个。
-		//如果取到值，获取返回的map的第一个key，
-		return (tmap.isEmpty()) ? this.consistentBuckets.firstKey() : tmap.firstKey();
+	public long getHash(byte[] key) {
+		HashAlgorithm alg = this.config.getHashAlgorithm();
+		//按字符定义的算法对非ASCII的key结果不同，解码后计算
+		if (!alg.isByteOriented()) {
+			return getHash(SafeEncoder.encode(key));
+		}
+		if (this.config.isHashTagEnabled()) {
+			int start = CacheKeyUtil.hashTagStart(key);
+			return alg.hash(key, start, CacheKeyUtil.hashTagEnd(key) - start) & 0xffffffffL;
+		}
+		return alg.hash(key, 0, key.length) & 0xffffffffL;
 	}
 
 	/**
 	 * 销毁连接信息
 	 */
-	public void destory() {
+	public synchronized void destory() {
+		if(this.keeper != null) {
+			this.keeper.stop();
+			this.keeper = null;
+		}
 		if(this.masterSlaveRef != null) {
 			this.masterSlaveRef.clear();
 		}
+		//立即销毁等待退役的连接池
+		if (this.retirer != null) {
+			this.retirer.shutdownNow();
+			this.retirer = null;
+		}
+		for (JedisPool jedisPool : this.retiring) {
+			if (this.retiring.remove(jedisPool)) {
+				jedisPool.destory();
+			}
+		}
 		if (socketPool != null) {
 			//释放连接池
 			for (Entry<String, JedisPool> entryPool : socketPool.entrySet()) {
@@ -299,9 +582,8 @@ public class ShardedPoolManager {
 			socketPool.clear();
 		}
 		//释放bucket
-		if (consistentBuckets != null) {
-			consistentBuckets.clear();
-		}
+		this.ring = new RingSnapshot(new TreeMap<Long, String>(), new HashMap<String, JedisPool>(),
+				new HashMap<String, List<String>>(), 0, PlacementStrategy.KETAMA_RING, ++this.ringVersion);
 		initialized = false;
 	}
 	
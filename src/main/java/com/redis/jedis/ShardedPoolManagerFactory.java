@@ -16,6 +16,8 @@ public class ShardedPoolManagerFactory {
 
 	private String sentinelConfig;
 
+	private ShardedPoolConfig config;
+
 	private ShardedPoolManager shardedPoolManager;
 
 	/**
@@ -26,7 +28,17 @@ public class ShardedPoolManagerFactory {
 	 * @param poolConfig
 	 */
 	public ShardedPoolManagerFactory(String sentinelConfig) {
+		this(sentinelConfig, new ShardedPoolConfig());
+	}
+
+	/**
+	 * 构造方法，赋值基本信息和路由配置
+	 * @param sentinelConfig
+	 * @param config
+	 */
+	public ShardedPoolManagerFactory(String sentinelConfig, ShardedPoolConfig config) {
 		this.sentinelConfig = sentinelConfig;
+		this.config = config;
 	}
 
 	/**
@@ -40,7 +52,7 @@ public class ShardedPoolManagerFactory {
 		List<String> sentinelConfigSet = new ArrayList<String>(Arrays.asList(sentinelConfigArr));
 		
 		// 创建并初始化分片redis连接池Manager
-		shardedPoolManager = new ShardedPoolManager(sentinelConfigSet);
+		shardedPoolManager = new ShardedPoolManager(sentinelConfigSet, this.config);
 		shardedPoolManager.initialize();
 		return shardedPoolManager;
 	}
@@ -0,0 +1,20 @@
+package com.redis.jedis;
+
+/**
+ * 拓扑变化监听，master增加或减少、新的路由快照发布之后由ShardedPoolManager调用
+ * 调用时持有ShardedPoolManager的锁，实现中不能执行耗时操作
+ * @author jiangchunzhi
+ *
+ */
+public interface TopologyListener {
+
+	/**
+	 * 新的路由快照已经发布，离开的redis连接池已经退役：宽限期(至少1秒，执行中的请求结束后，最多30秒)之后才销毁，
+	 * 调用时可能仍然可用，也可能随时被关闭；实现中不能假设它们已经关闭，也不能继续持有或借用，
+	 * 需要访问离开的redis时(例如迁出其中的数据)应按previous中的地址自行建立连接
+	 * @param previous 变化之前的快照
+	 * @param current 当前快照
+	 */
+	public void ringChanged(RingSnapshot previous, RingSnapshot current);
+
+}
@@ -1,7 +1,5 @@
 package com.redis.sentinels;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,6 +10,9 @@ import java.util.Set;
 
 import redis.clients.jedis.exceptions.JedisDataException;
 
+import com.redis.codec.JavaSerializationCodec;
+import com.redis.codec.ValueCodec;
+
 /**
  * Sentinel 外层实例类
  * @author jiangchunzhi
@@ -21,6 +22,14 @@ public class Sentinel {
 
 	private SentinelClient client;
 
+	//bytes2Object使用的值编码，默认与RedisCacheConfig的默认值一致使用Java序列化；
+	//Sentinel不知道缓存配置的编码，使用BinaryCodec注册类型或压缩时需要通过setCodec传入同样包装的编码
+	private ValueCodec codec = JavaSerializationCodec.INSTANCE;
+
+	public void setCodec(ValueCodec codec) {
+		this.codec = codec;
+	}
+
 	public Sentinel(final String host, final int port) {
 		client = new SentinelClient(host, port);
 	}
@@ -175,16 +184,14 @@ public class Sentinel {
 		}
 	}
 
+	/**
+	 * 默认只能读取Java序列化的数据，其他编码写入的值需要先通过setCodec设置相同的编码
+	 */
 	public Object bytes2Object(byte[] objBytes) throws Exception {
 		if (objBytes == null || objBytes.length == 0) {
 			return null;
 		}
-		ByteArrayInputStream bi = new ByteArrayInputStream(objBytes);
-		ObjectInputStream oi = new ObjectInputStream(bi);
-		Object obj = oi.readObject();
-		bi.close();
-		oi.close();
-		return obj;
+		return this.codec.decode(objBytes);
 	}
 	
 	public void close() {
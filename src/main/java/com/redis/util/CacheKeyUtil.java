@@ -45,14 +45,90 @@ public class CacheKeyUtil {
 	
 	public static final String INTERFACE_DATA_COUNT_KEY_PREFIX = "OC_DATA_";
 	
+	/**
+	 * 生成带hash tag的key，启用hash tag路由时，tag相同的key分配到同一个master，
+	 * 例如同一合作方的成功和失败统计：taggedKey(PARTNER_STATISTIC_SUCCESS_PREFIX, partnerId)
+	 * @param prefix
+	 * @param tag
+	 * @return prefix{tag}
+	 */
+	public static String taggedKey(String prefix, String tag) {
+		return prefix + "{" + tag + "}";
+	}
+	
+	/**
+	 * 获取key中参与路由的部分，规则与redis cluster一致：
+	 * 第一个'{'和其后第一个'}'之间的内容非空时只使用该内容，否则使用整个key
+	 * @param key
+	 * @return
+	 */
+	public static String getHashTag(String key) {
+		return key.substring(hashTagStart(key), hashTagEnd(key));
+	}
+	
+	/**
+	 * key中参与路由部分的起始下标(含)，没有hash tag时为0
+	 * @param key
+	 * @return
+	 */
+	public static int hashTagStart(String key) {
+		int start = key.indexOf('{');
+		if (start < 0) {
+			return 0;
+		}
+		int end = key.indexOf('}', start + 1);
+		return end <= start + 1 ? 0 : start + 1;
+	}
+	
+	/**
+	 * key中参与路由部分的结束下标(不含)，没有hash tag时为key的长度
+	 * @param key
+	 * @return
+	 */
+	public static int hashTagEnd(String key) {
+		int start = key.indexOf('{');
+		if (start < 0) {
+			return key.length();
+		}
+		int end = key.indexOf('}', start + 1);
+		return end <= start + 1 ? key.length() : end;
+	}
+	
+	/**
+	 * 二进制key中参与路由部分的起始下标(含)，'{'和'}'不会出现在UTF-8多字节字符中，结果与字符串形式一致
+	 * @param key UTF-8编码的key
+	 * @return
+	 */
+	public static int hashTagStart(byte[] key) {
+		int start = indexOf(key, (byte) '{', 0);
+		if (start < 0) {
+			return 0;
+		}
+		int end = indexOf(key, (byte) '}', start + 1);
+		return end <= start + 1 ? 0 : start + 1;
+	}
+	
+	/**
+	 * 二进制key中参与路由部分的结束下标(不含)，没有hash tag时为key的长度
+	 * @param key UTF-8编码的key
+	 * @return
+	 */
+	public static int hashTagEnd(byte[] key) {
+		int start = indexOf(key, (byte) '{', 0);
+		if (start < 0) {
+			return key.length;
+		}
+		int end = indexOf(key, (byte) '}', start + 1);
+		return end <= start + 1 ? key.length : end;
+	}
+	
+	private static int indexOf(byte[] key, byte b, int from) {
+		for (int i = from; i < key.length; i++) {
+			if (key[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
 }
-
-
-
-
-
-
-
-
-
-
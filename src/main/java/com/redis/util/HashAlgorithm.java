@@ -1,6 +1,6 @@
 package com.redis.util;
 
-import java.io.UnsupportedEncodingException;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.zip.CRC32;
@@ -69,7 +69,23 @@ public enum HashAlgorithm {
 	 * The Jenkins One-at-a-time hash ,please see
 	 * http://www.burtleburtle.net/bob/hash/doobs.html
 	 */
-	ONE_AT_A_TIME;
+	ONE_AT_A_TIME,
+
+	/**
+	 * MurmurHash3 x86 32-bit, seed 0, over the UTF-8 bytes of the key. Fast
+	 * non-cryptographic hash with a good distribution, suitable for routing.
+	 * 
+	 * @see https://github.com/aappleby/smhasher
+	 */
+	MURMUR3_32_HASH,
+
+	/**
+	 * xxHash 32-bit, seed 0, over the UTF-8 bytes of the key. Fast
+	 * non-cryptographic hash with a good distribution, suitable for routing.
+	 * 
+	 * @see https://github.com/Cyan4973/xxHash
+	 */
+	XXHASH_32;
 
 	private static final long FNV_64_INIT = 0xcbf29ce484222325L;
 	private static final long FNV_64_PRIME = 0x100000001b3L;
@@ -77,26 +93,74 @@ public enum HashAlgorithm {
 	private static final long FNV_32_INIT = 2166136261L;
 	private static final long FNV_32_PRIME = 16777619;
 
+	private static final int XXH_PRIME1 = 0x9E3779B1;
+	private static final int XXH_PRIME2 = 0x85EBCA77;
+	private static final int XXH_PRIME3 = 0xC2B2AE3D;
+	private static final int XXH_PRIME4 = 0x27D4EB2F;
+	private static final int XXH_PRIME5 = 0x165667B1;
+
+	/**
+	 * Whether the algorithm is defined over the UTF-8 bytes of the key. For
+	 * these the String and byte[] entry points always agree; the others are
+	 * defined over characters and only agree for ASCII keys.
+	 */
+	public boolean isByteOriented() {
+		switch (this) {
+		case CRC32_HASH:
+		case ELECTION_HASH:
+		case KETAMA_HASH:
+		case LUA_HASH:
+		case ONE_AT_A_TIME:
+		case MURMUR3_32_HASH:
+		case XXHASH_32:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	/**
 	 * Compute the hash for the given key.
 	 * 
 	 * @return a positive integer hash
 	 */
 	public long hash(final String k) {
+		return hash(k, 0, k.length());
+	}
+
+	/**
+	 * Compute the hash for the given key without copying it.
+	 * 
+	 * @return a positive integer hash
+	 */
+	public long hash(final CharSequence k) {
+		return hash(k, 0, k.length());
+	}
+
+	/**
+	 * Compute the hash for the characters [start, end) of the given key.
+	 * Algorithms defined over bytes encode the characters as UTF-8 into a
+	 * per-thread buffer, so no array is allocated per call.
+	 * 
+	 * @return a positive integer hash
+	 */
+	public long hash(final CharSequence k, final int start, final int end) {
 		long rv = 0;
 		switch (this) {
 		case NATIVE_HASH:
-			rv = k.hashCode();
-			break;
-		case CRC32_HASH:
-			CRC32 crc32 = new CRC32();
-			crc32.update(ByteUtils.getBytes(k));
-			rv = crc32.getValue() >> 16 & 0x7fff;
+			if (start == 0 && end == k.length() && k instanceof String) {
+				rv = k.hashCode();
+			} else {
+				int h = 0;
+				for (int i = start; i < end; i++) {
+					h = 31 * h + k.charAt(i);
+				}
+				rv = h;
+			}
 			break;
 		case FNV1_64_HASH: {
 			rv = FNV_64_INIT;
-			int len = k.length();
-			for (int i = 0; i < len; i++) {
+			for (int i = start; i < end; i++) {
 				rv *= FNV_64_PRIME;
 				rv ^= k.charAt(i);
 			}
@@ -104,8 +168,7 @@ public enum HashAlgorithm {
 			break;
 		case FNV1A_64_HASH: {
 			rv = FNV_64_INIT;
-			int len = k.length();
-			for (int i = 0; i < len; i++) {
+			for (int i = start; i < end; i++) {
 				rv ^= k.charAt(i);
 				rv *= FNV_64_PRIME;
 			}
@@ -113,8 +176,7 @@ public enum HashAlgorithm {
 			break;
 		case FNV1_32_HASH: {
 			rv = FNV_32_INIT;
-			int len = k.length();
-			for (int i = 0; i < len; i++) {
+			for (int i = start; i < end; i++) {
 				rv *= FNV_32_PRIME;
 				rv ^= k.charAt(i);
 			}
@@ -122,30 +184,22 @@ public enum HashAlgorithm {
 			break;
 		case FNV1A_32_HASH: {
 			rv = FNV_32_INIT;
-			int len = k.length();
-			for (int i = 0; i < len; i++) {
+			for (int i = start; i < end; i++) {
 				rv ^= k.charAt(i);
 				rv *= FNV_32_PRIME;
 			}
 		}
 			break;
-		case ELECTION_HASH:
-		case KETAMA_HASH:
-			byte[] bKey = computeMd5(k);
-			rv = (long) (bKey[3] & 0xFF) << 24 | (long) (bKey[2] & 0xFF) << 16
-					| (long) (bKey[1] & 0xFF) << 8 | bKey[0] & 0xFF;
-			break;
-
 		case MYSQL_HASH:
 			int nr2 = 4;
-			for (int i = 0; i < k.length(); i++) {
+			for (int i = start; i < end; i++) {
 				rv ^= ((rv & 63) + nr2) * k.charAt(i) + (rv << 8);
 				nr2 += 3;
 			}
 			break;
 		case ELF_HASH:
 			long x = 0;
-			for (int i = 0; i < k.length(); i++) {
+			for (int i = start; i < end; i++) {
 				rv = (rv << 4) + k.charAt(i);
 				if ((x = rv & 0xF0000000L) != 0) {
 					rv ^= x >> 24;
@@ -157,33 +211,136 @@ public enum HashAlgorithm {
 		case RS_HASH:
 			long b = 378551;
 			long a = 63689;
-			for (int i = 0; i < k.length(); i++) {
+			for (int i = start; i < end; i++) {
 				rv = rv * a + k.charAt(i);
 				a *= b;
 			}
 			rv = rv & 0x7FFFFFFF;
 			break;
-		case LUA_HASH:
-			int step = (k.length() >> 5) + 1;
-			rv = k.length();
-			for (int len = k.length(); len >= step; len -= step) {
-				rv = rv ^ (rv << 5) + (rv >> 2) + k.charAt(len - 1);
+		default: {
+			//按字节定义的算法：编码到线程内复用的缓冲区后计算
+			Scratch scratch = SCRATCH.get();
+			int len = scratch.encode(k, start, end);
+			return hash(scratch.buf, 0, len);
+		}
+		}
+
+		return rv & 0xffffffffL; /* Truncate to 32-bits */
+	}
+
+	/**
+	 * Compute the hash for len bytes of b starting at off, without copying.
+	 * Character based algorithms treat every byte as one unsigned character,
+	 * which gives the same result as the String entry point for ASCII keys.
+	 * 
+	 * @return a positive integer hash
+	 */
+	public long hash(final byte[] b, final int off, final int len) {
+		long rv = 0;
+		final int end = off + len;
+		switch (this) {
+		case NATIVE_HASH: {
+			int h = 0;
+			for (int i = off; i < end; i++) {
+				h = 31 * h + (b[i] & 0xFF);
 			}
-		case ONE_AT_A_TIME:
-			try {
-				int hash = 0;
-				for (byte bt : k.getBytes("utf-8")) {
-					hash += (bt & 0xFF);
-					hash += (hash << 10);
-					hash ^= (hash >>> 6);
+			rv = h;
+		}
+			break;
+		case CRC32_HASH: {
+			CRC32 crc32 = SCRATCH.get().crc32;
+			crc32.reset();
+			crc32.update(b, off, len);
+			rv = crc32.getValue() >> 16 & 0x7fff;
+		}
+			break;
+		case FNV1_64_HASH: {
+			rv = FNV_64_INIT;
+			for (int i = off; i < end; i++) {
+				rv *= FNV_64_PRIME;
+				rv ^= b[i] & 0xFF;
+			}
+		}
+			break;
+		case FNV1A_64_HASH: {
+			rv = FNV_64_INIT;
+			for (int i = off; i < end; i++) {
+				rv ^= b[i] & 0xFF;
+				rv *= FNV_64_PRIME;
+			}
+		}
+			break;
+		case FNV1_32_HASH: {
+			rv = FNV_32_INIT;
+			for (int i = off; i < end; i++) {
+				rv *= FNV_32_PRIME;
+				rv ^= b[i] & 0xFF;
+			}
+		}
+			break;
+		case FNV1A_32_HASH: {
+			rv = FNV_32_INIT;
+			for (int i = off; i < end; i++) {
+				rv ^= b[i] & 0xFF;
+				rv *= FNV_32_PRIME;
+			}
+		}
+			break;
+		case ELECTION_HASH:
+		case KETAMA_HASH: {
+			Scratch scratch = SCRATCH.get();
+			byte[] bKey = scratch.md5(b, off, len);
+			rv = (long) (bKey[3] & 0xFF) << 24 | (long) (bKey[2] & 0xFF) << 16
+					| (long) (bKey[1] & 0xFF) << 8 | bKey[0] & 0xFF;
+		}
+			break;
+		case MYSQL_HASH:
+			int nr2 = 4;
+			for (int i = off; i < end; i++) {
+				rv ^= ((rv & 63) + nr2) * (b[i] & 0xFF) + (rv << 8);
+				nr2 += 3;
+			}
+			break;
+		case ELF_HASH:
+			long x = 0;
+			for (int i = off; i < end; i++) {
+				rv = (rv << 4) + (b[i] & 0xFF);
+				if ((x = rv & 0xF0000000L) != 0) {
+					rv ^= x >> 24;
+					rv &= ~x;
 				}
-				hash += (hash << 3);
-				hash ^= (hash >>> 11);
-				hash += (hash << 15);
-				return hash;
-			} catch (UnsupportedEncodingException e) {
-				throw new IllegalStateException("Hash function error", e);
 			}
+			rv = rv & 0x7FFFFFFF;
+			break;
+		case RS_HASH:
+			long bb = 378551;
+			long a = 63689;
+			for (int i = off; i < end; i++) {
+				rv = rv * a + (b[i] & 0xFF);
+				a *= bb;
+			}
+			rv = rv & 0x7FFFFFFF;
+			break;
+		//LUA_HASH原实现缺少break，结果总是与ONE_AT_A_TIME相同，保持兼容
+		case LUA_HASH:
+		case ONE_AT_A_TIME: {
+			int hash = 0;
+			for (int i = off; i < end; i++) {
+				hash += (b[i] & 0xFF);
+				hash += (hash << 10);
+				hash ^= (hash >>> 6);
+			}
+			hash += (hash << 3);
+			hash ^= (hash >>> 11);
+			hash += (hash << 15);
+			return hash;
+		}
+		case MURMUR3_32_HASH:
+			rv = murmur3(b, off, len);
+			break;
+		case XXHASH_32:
+			rv = xxhash32(b, off, len);
+			break;
 		default:
 			assert false;
 		}
@@ -191,6 +348,185 @@ public enum HashAlgorithm {
 		return rv & 0xffffffffL; /* Truncate to 32-bits */
 	}
 
+	/**
+	 * MurmurHash3 x86 32-bit, seed 0
+	 */
+	@SuppressWarnings("fallthrough")
+	private static int murmur3(final byte[] b, final int off, final int len) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		int h1 = 0;
+		int roundedEnd = off + (len & 0xfffffffc);
+		for (int i = off; i < roundedEnd; i += 4) {
+			int k1 = readIntLE(b, i);
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Integer.rotateLeft(h1, 13);
+			h1 = h1 * 5 + 0xe6546b64;
+		}
+		int k1 = 0;
+		switch (len & 0x03) {
+		case 3:
+			k1 = (b[roundedEnd + 2] & 0xff) << 16;
+			// fall through
+		case 2:
+			k1 |= (b[roundedEnd + 1] & 0xff) << 8;
+			// fall through
+		case 1:
+			k1 |= (b[roundedEnd] & 0xff);
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			h1 ^= k1;
+		}
+		h1 ^= len;
+		h1 ^= h1 >>> 16;
+		h1 *= 0x85ebca6b;
+		h1 ^= h1 >>> 13;
+		h1 *= 0xc2b2ae35;
+		h1 ^= h1 >>> 16;
+		return h1;
+	}
+
+	/**
+	 * xxHash 32-bit, seed 0
+	 */
+	private static int xxhash32(final byte[] b, final int off, final int len) {
+		final int end = off + len;
+		int p = off;
+		int h;
+		if (len >= 16) {
+			int v1 = XXH_PRIME1 + XXH_PRIME2;
+			int v2 = XXH_PRIME2;
+			int v3 = 0;
+			int v4 = -XXH_PRIME1;
+			int limit = end - 16;
+			do {
+				v1 = xxhRound(v1, readIntLE(b, p));
+				v2 = xxhRound(v2, readIntLE(b, p + 4));
+				v3 = xxhRound(v3, readIntLE(b, p + 8));
+				v4 = xxhRound(v4, readIntLE(b, p + 12));
+				p += 16;
+			} while (p <= limit);
+			h = Integer.rotateLeft(v1, 1) + Integer.rotateLeft(v2, 7)
+					+ Integer.rotateLeft(v3, 12) + Integer.rotateLeft(v4, 18);
+		} else {
+			h = XXH_PRIME5;
+		}
+		h += len;
+		while (p + 4 <= end) {
+			h += readIntLE(b, p) * XXH_PRIME3;
+			h = Integer.rotateLeft(h, 17) * XXH_PRIME4;
+			p += 4;
+		}
+		while (p < end) {
+			h += (b[p] & 0xFF) * XXH_PRIME5;
+			h = Integer.rotateLeft(h, 11) * XXH_PRIME1;
+			p++;
+		}
+		h ^= h >>> 15;
+		h *= XXH_PRIME2;
+		h ^= h >>> 13;
+		h *= XXH_PRIME3;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int xxhRound(int acc, int input) {
+		acc += input * XXH_PRIME2;
+		acc = Integer.rotateLeft(acc, 13);
+		return acc * XXH_PRIME1;
+	}
+
+	private static int readIntLE(final byte[] b, final int i) {
+		return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | (b[i + 3] << 24);
+	}
+
+	private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * 每个线程复用的计算缓冲区，计算hash时不再为每个key分配对象
+	 */
+	private static final class Scratch {
+
+		byte[] buf = new byte[256];
+
+		final byte[] digest = new byte[16];
+
+		final CRC32 crc32 = new CRC32();
+
+		MessageDigest md5;
+
+		/**
+		 * 将[start, end)之间的字符按UTF-8编码到buf中，与String.getBytes("utf-8")结果一致
+		 * @return 编码后的字节数
+		 */
+		int encode(CharSequence k, int start, int end) {
+			int max = (end - start) * 3;
+			if (buf.length < max) {
+				buf = new byte[ByteUtils.normalizeCapacity(max)];
+			}
+			byte[] dst = buf;
+			int p = 0;
+			for (int i = start; i < end; i++) {
+				char c = k.charAt(i);
+				if (c < 0x80) {
+					dst[p++] = (byte) c;
+				} else if (c < 0x800) {
+					dst[p++] = (byte) (0xC0 | (c >> 6));
+					dst[p++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isSurrogate(c)) {
+					char d;
+					if (Character.isHighSurrogate(c) && i + 1 < end
+							&& Character.isLowSurrogate(d = k.charAt(i + 1))) {
+						int cp = Character.toCodePoint(c, d);
+						dst[p++] = (byte) (0xF0 | (cp >> 18));
+						dst[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+						dst[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+						dst[p++] = (byte) (0x80 | (cp & 0x3F));
+						i++;
+					} else {
+						//不成对的代理字符，与JDK的编码器一样替换为'?'
+						dst[p++] = (byte) '?';
+					}
+				} else {
+					dst[p++] = (byte) (0xE0 | (c >> 12));
+					dst[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					dst[p++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+			return p;
+		}
+
+		/**
+		 * 计算md5，结果写入线程内复用的digest数组
+		 */
+		byte[] md5(byte[] b, int off, int len) {
+			if (md5 == null) {
+				try {
+					md5 = MessageDigest.getInstance("MD5");
+				} catch (NoSuchAlgorithmException e) {
+					throw new RuntimeException("MD5 not supported", e);
+				}
+			}
+			md5.reset();
+			md5.update(b, off, len);
+			try {
+				md5.digest(digest, 0, digest.length);
+			} catch (DigestException e) {
+				throw new RuntimeException("MD5 digest error", e);
+			}
+			return digest;
+		}
+	}
+
 	private static ThreadLocal<MessageDigest> md5Local = new ThreadLocal<MessageDigest>();
 
 	/**
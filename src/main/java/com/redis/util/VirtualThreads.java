@@ -0,0 +1,52 @@
+package com.redis.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/**
+ * 虚拟线程支持，项目按Java 8编译，通过反射调用Java 21的Executors.newVirtualThreadPerTaskExecutor
+ * @author jiangchunzhi
+ *
+ */
+public class VirtualThreads {
+
+	private static final Logger log = Logger.getLogger(VirtualThreads.class);
+
+	private static final Method NEW_EXECUTOR = lookup();
+
+	private static Method lookup() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * 当前JVM是否支持虚拟线程
+	 * @return
+	 */
+	public static boolean isSupported() {
+		return NEW_EXECUTOR != null;
+	}
+
+	/**
+	 * 创建每个任务一个虚拟线程的线程池
+	 * @return 不支持虚拟线程时返回null
+	 */
+	public static ExecutorService newExecutor() {
+		if (NEW_EXECUTOR == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) NEW_EXECUTOR.invoke(null);
+		} catch (Exception e) {
+			log.warn("create virtual thread executor failed", e);
+			return null;
+		}
+	}
+
+}
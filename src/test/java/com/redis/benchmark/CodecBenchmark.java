@@ -0,0 +1,126 @@
+package com.redis.benchmark;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redis.codec.BinaryCodec;
+import com.redis.codec.CompressingCodec;
+import com.redis.codec.JavaSerializationCodec;
+import com.redis.codec.ValueCodec;
+
+/**
+ * 值编码对比：Java序列化、BinaryCodec以及压缩后的编码、解码耗时和编码后的大小
+ * 不需要连接redis，直接运行main方法
+ * @author jiangchunzhi
+ *
+ */
+public class CodecBenchmark {
+
+	private static final int CALLS = 200000;
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 * 应用类型，BinaryCodec中通过register注册
+	 */
+	public static class Item implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		long id;
+
+		String name;
+
+		int count;
+
+		Item(long id, String name, int count) {
+			this.id = id;
+			this.name = name;
+			this.count = count;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		BinaryCodec binary = new BinaryCodec();
+		binary.register(1, Item.class, new BinaryCodec.TypeSerializer<Item>() {
+			@Override
+			public void write(Item value, DataOutput out) throws IOException {
+				out.writeLong(value.id);
+				out.writeUTF(value.name);
+				out.writeInt(value.count);
+			}
+
+			@Override
+			public Item read(DataInput in) throws IOException {
+				return new Item(in.readLong(), in.readUTF(), in.readInt());
+			}
+		});
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("id", 10086L);
+		map.put("title", "redis high available");
+		map.put("score", 4.5d);
+		map.put("online", Boolean.TRUE);
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < 100; i++) {
+			list.add(i * 31);
+		}
+		Map<String, Item> items = new LinkedHashMap<String, Item>();
+		for (int i = 0; i < 20; i++) {
+			items.put("item_" + i, new Item(i, "name_" + i, i * 7));
+		}
+
+		Object[] values = { "ZHUAQU_IDS_LIST", 123456789L, new byte[256], map, list, items };
+		String[] names = { "String", "Long", "byte[256]", "HashMap", "ArrayList(100)", "Map<Item>(20)" };
+		for (int i = 0; i < values.length; i++) {
+			report(names[i], "java", JavaSerializationCodec.INSTANCE, values[i], CALLS);
+			report(names[i], "binary", binary, values[i], CALLS);
+		}
+
+		//较大的值才压缩
+		ArrayList<String> large = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			large.add("http://www.example.com/zhuaqu/item/" + (i * 7919));
+		}
+		CompressingCodec compressing = new CompressingCodec(binary, 1024);
+		report("ArrayList(500)", "java", JavaSerializationCodec.INSTANCE, large, CALLS / 100);
+		report("ArrayList(500)", "binary", binary, large, CALLS / 100);
+		report("ArrayList(500)", "deflate", compressing, large, CALLS / 100);
+		System.out.println(String.format("compression ratio %.2f", compressing.getCompressionRatio()));
+	}
+
+	private static void report(String name, String codecName, ValueCodec codec, Object value, int calls)
+			throws Exception {
+		//预热，再取多轮中的最好成绩
+		long sink = 0;
+		long bestEncode = Long.MAX_VALUE;
+		long bestDecode = Long.MAX_VALUE;
+		byte[] bytes = codec.encode(value);
+		for (int r = 0; r < ROUNDS + 2; r++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < calls; i++) {
+				sink += codec.encode(value).length;
+			}
+			long encode = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < calls; i++) {
+				sink += codec.decode(bytes) != null ? 1 : 0;
+			}
+			long decode = System.nanoTime() - start;
+			if (r >= 2) {
+				bestEncode = Math.min(bestEncode, encode);
+				bestDecode = Math.min(bestDecode, decode);
+			}
+		}
+		System.out.println(String.format("%-15s %-7s encode %8.1f ns  decode %8.1f ns  size %6d bytes  (%d)",
+				name, codecName, (double) bestEncode / calls, (double) bestDecode / calls, bytes.length, sink & 1));
+	}
+
+}
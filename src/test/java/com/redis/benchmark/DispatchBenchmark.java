@@ -0,0 +1,159 @@
+package com.redis.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.util.SafeEncoder;
+
+import com.redis.annotation.RedisRead;
+import com.redis.annotation.RehashRedisRead;
+import com.redis.client.MethodInfo;
+
+/**
+ * 代理分发耗时对比：每次调用读取注解并反射调用，与创建时解析的MethodInfo(MethodHandle)调用
+ * 不需要连接redis，实现方法只返回参数，直接运行main方法
+ * @author jiangchunzhi
+ *
+ */
+public class DispatchBenchmark {
+
+	private static final int CALLS = 5000000;
+
+	private static final int ROUNDS = 5;
+
+	public interface Cache {
+
+		@RedisRead
+		@RehashRedisRead
+		public String get(String key);
+
+		public void put(String key, String value);
+	}
+
+	/**
+	 * 原有实现通过ThreadLocal获取连接，现有实现显式传入连接
+	 */
+	public static class CacheImpl {
+
+		final ThreadLocal<ShardedJedis> threadLocal = new ThreadLocal<ShardedJedis>();
+
+		public String get(byte[] key) {
+			return this.get(this.threadLocal.get(), key);
+		}
+
+		public void put(byte[] key, String value) {
+			this.put(this.threadLocal.get(), key, value);
+		}
+
+		public String get(ShardedJedis jedis, byte[] key) {
+			return key.length > 0 ? "v" : null;
+		}
+
+		public void put(ShardedJedis jedis, byte[] key, String value) {
+		}
+	}
+
+	/**
+	 * 原有方式：每次调用读取注解，查找byte[]重载方法，通过ThreadLocal设置连接，反射调用
+	 */
+	private static class ReflectiveHandler implements InvocationHandler {
+
+		private final CacheImpl impl = new CacheImpl();
+
+		private final ConcurrentHashMap<Method, Method> rawMethods = new ConcurrentHashMap<Method, Method>();
+
+		int reads;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			RehashRedisRead rrr = method.getAnnotation(RehashRedisRead.class);
+			RedisRead rr = method.getAnnotation(RedisRead.class);
+			if (rrr != null && rr != null) {
+				reads++;
+			}
+			args[0] = SafeEncoder.encode((String) args[0]);
+			Method raw = this.rawMethods.get(method);
+			if (raw == null) {
+				Class<?>[] types = method.getParameterTypes().clone();
+				types[0] = byte[].class;
+				raw = CacheImpl.class.getMethod(method.getName(), types);
+				this.rawMethods.put(method, raw);
+			}
+			try {
+				this.impl.threadLocal.set(null);
+				return raw.invoke(this.impl, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+
+	/**
+	 * 现有方式：创建时解析路由信息，调用时查表并通过MethodHandle调用，连接显式传入
+	 */
+	private static class TableHandler implements InvocationHandler {
+
+		private final Map<Method, MethodInfo> methods = new HashMap<Method, MethodInfo>();
+
+		int reads;
+
+		TableHandler() throws Exception {
+			CacheImpl impl = new CacheImpl();
+			for (Method method : Cache.class.getMethods()) {
+				this.methods.put(method, MethodInfo.resolve(method, impl));
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			MethodInfo info = this.methods.get(method);
+			if (info.isRehashRead() && info.isReplicaRead()) {
+				reads++;
+			}
+			args[info.getKeyIndex()] = SafeEncoder.encode((String) args[info.getKeyIndex()]);
+			return info.execute(null, args);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		String[] keys = new String[1024];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "test_key_" + i;
+		}
+		report("reflective", newProxy(new ReflectiveHandler()), keys);
+		report("method table", newProxy(new TableHandler()), keys);
+	}
+
+	private static Cache newProxy(InvocationHandler handler) {
+		return (Cache) Proxy.newProxyInstance(Cache.class.getClassLoader(), new Class<?>[] { Cache.class }, handler);
+	}
+
+	private static void report(String name, Cache cache, String[] keys) {
+		//预热，再取多轮中的最好成绩
+		long sink = 0;
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < ROUNDS + 2; r++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < CALLS; i++) {
+				String key = keys[i & (keys.length - 1)];
+				if ((i & 7) == 0) {
+					cache.put(key, "v");
+				} else {
+					sink += cache.get(key).length();
+				}
+			}
+			long cost = System.nanoTime() - start;
+			if (r >= 2 && cost < best) {
+				best = cost;
+			}
+		}
+		System.out.println(String.format("%-14s %6.1f ns/call  (%d)", name, (double) best / CALLS, sink & 1));
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.redis.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.redis.jedis.JedisPool;
+import com.redis.jedis.PlacementStrategy;
+import com.redis.jedis.RingSnapshot;
+import com.redis.util.HashAlgorithm;
+
+/**
+ * 分布策略对比：查找耗时、扩容一个master时迁移的key比例、各master的key数量偏差
+ * 不需要连接redis，直接运行main方法
+ * @author jiangchunzhi
+ *
+ */
+public class PlacementBenchmark {
+
+	private static final int KEYS = 1000000;
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int masters = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long[] hashes = new long[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			hashes[i] = HashAlgorithm.KETAMA_HASH.hash("test_key_" + i);
+		}
+
+		System.out.println("masters=" + masters + ", keys=" + KEYS);
+		for (PlacementStrategy strategy : PlacementStrategy.values()) {
+			RingSnapshot before = build(masters, strategy, 0);
+			RingSnapshot after = build(masters + 1, strategy, 0);
+			report(strategy.name(), before, after, hashes);
+		}
+		//槽位表只对Hash环生效
+		report("KETAMA_RING(slot=65536)", build(masters, PlacementStrategy.KETAMA_RING, 65536),
+				build(masters + 1, PlacementStrategy.KETAMA_RING, 65536), hashes);
+	}
+
+	/**
+	 * 构建不带连接池的快照，master名称为redis-00, redis-01...，新增的master排在最后
+	 */
+	private static RingSnapshot build(int masters, PlacementStrategy strategy, int slotCount) {
+		TreeMap<Long, String> buckets = new TreeMap<Long, String>();
+		Map<String, List<String>> masterSlaveRef = new HashMap<String, List<String>>();
+		for (int i = 0; i < masters; i++) {
+			String master = String.format("redis-%02d", i);
+			masterSlaveRef.put(master, new ArrayList<String>());
+			RingSnapshot.populateVirtualNodes(buckets, master, 32);
+		}
+		return new RingSnapshot(buckets, new HashMap<String, JedisPool>(), masterSlaveRef, slotCount, strategy);
+	}
+
+	private static void report(String name, RingSnapshot before, RingSnapshot after, long[] hashes) {
+		//预热，再取多轮中的最好成绩
+		long sink = 0;
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < ROUNDS + 2; r++) {
+			long start = System.nanoTime();
+			for (long hv : hashes) {
+				sink += before.locate(hv);
+			}
+			long cost = System.nanoTime() - start;
+			if (r >= 2 && cost < best) {
+				best = cost;
+			}
+		}
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		int moved = 0;
+		for (long hv : hashes) {
+			String owner = before.getMaster(before.locate(hv));
+			Integer c = counts.get(owner);
+			counts.put(owner, c == null ? 1 : c + 1);
+			if (!owner.equals(after.getMaster(after.locate(hv)))) {
+				moved++;
+			}
+		}
+		int max = 0;
+		int min = Integer.MAX_VALUE;
+		for (int c : counts.values()) {
+			max = Math.max(max, c);
+			min = Math.min(min, c);
+		}
+		double mean = (double) hashes.length / counts.size();
+
+		System.out.println(String.format("%-26s lookup=%6.1f ns/key  moved=%5.2f%% (ideal %5.2f%%)  max/mean=%.3f  min/mean=%.3f  (%d)",
+				name, (double) best / hashes.length, moved * 100.0 / hashes.length,
+				100.0 / (counts.size() + 1), max / mean, min / mean, sink & 1));
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.redis.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import com.redis.util.VirtualThreads;
+
+/**
+ * 线程模型对比：每个执行中请求一个平台线程，与每个请求一个虚拟线程、信号量限制每台redis的并发数
+ * 不需要连接redis，用sleep模拟一次网络往返，报告吞吐量、峰值线程数和堆内存增量
+ * 参数：并发请求数 请求总数 往返耗时(毫秒)，虚拟线程需要Java 21
+ * @author jiangchunzhi
+ *
+ */
+public class ThreadingBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int calls = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		long latency = args.length > 2 ? Long.parseLong(args[2]) : 2;
+		System.out.println("concurrency=" + concurrency + ", calls=" + calls + ", latency=" + latency + "ms");
+
+		report("platform threads", Executors.newFixedThreadPool(concurrency), null, calls, latency);
+		ExecutorService virtual = VirtualThreads.newExecutor();
+		if (virtual == null) {
+			System.out.println("virtual threads are not supported by this JVM");
+			return;
+		}
+		report("virtual threads", virtual, new Semaphore(concurrency, true), calls, latency);
+	}
+
+	private static void report(String name, ExecutorService executor, final Semaphore permits, int calls,
+			final long latency) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long heapBefore = rt.totalMemory() - rt.freeMemory();
+		threads.resetPeakThreadCount();
+
+		final CountDownLatch done = new CountDownLatch(calls);
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (permits != null) {
+							permits.acquire();
+						}
+						try {
+							//模拟阻塞的redis往返
+							Thread.sleep(latency);
+						} finally {
+							if (permits != null) {
+								permits.release();
+							}
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		long cost = System.nanoTime() - start;
+		long heapAfter = rt.totalMemory() - rt.freeMemory();
+		executor.shutdown();
+
+		System.out.println(String.format("%-18s %9.0f calls/s  peak threads=%5d  heap delta=%6.1f MB",
+				name, calls * 1e9 / cost, threads.getPeakThreadCount(), (heapAfter - heapBefore) / 1048576.0));
+	}
+
+}